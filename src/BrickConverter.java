@@ -0,0 +1,38 @@
+import model.BrickedVolume;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Converts a raw CT scan file into a bricked volume file, which can be rendered without loading it into the heap.
+ * Run with the raw file, its dimensions, the file to write and optionally the side of the bricks:
+ * <pre>
+ * BrickConverter resources/scan 113 256 256 scan.bricks
+ * BrickConverter big.raw 1024 1024 1024 big.bricks 64
+ * </pre>
+ *
+ * @author Kasper Krawczyk
+ */
+public class BrickConverter {
+
+    public static final String USAGE_MSG =
+            "Usage: BrickConverter <raw file> <size> <height> <width> <output file> [brick size]";
+
+    public static void main(String[] args) {
+        if (args.length != 5 && args.length != 6) {
+            System.out.println(USAGE_MSG);
+            return;
+        }
+        try {
+            int brickSize = args.length == 6 ? Integer.parseInt(args[5]) : BrickedVolume.DEFAULT_BRICK_SIZE;
+            BrickedVolume.convertRaw(new File(args[0]),
+                    Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    new File(args[4]), brickSize);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE_MSG);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import config.IConfig;
+import model.DataSetRegistry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class keeps track of the dataset tabs of the main window: it loads their datasets on a background thread
+ * through the process-wide {@link DataSetRegistry}, so tabs showing the same scan share it,
+ * preloads the tab after the one being viewed, as the one most likely to be viewed next,
+ * and unloads the tabs viewed least recently once more than a given number of them are loaded.
+ * It is only used from the JavaFX Application Thread
+ *
+ * @author Kasper Krawczyk
+ */
+public class DatasetTabRegistry {
+
+    public static final int DEFAULT_MAX_LOADED_TABS = 2;
+    public static final String PRELOAD_MSG = "Preloading the %s tab";
+    public static final String UNLOAD_MSG = "Unloaded the %s tab, not viewed recently";
+
+    private final List<LazyDatasetTab> tabs = new ArrayList<>();
+    /**
+     * The tabs loaded or being loaded, from the least to the most recently viewed
+     */
+    private final LinkedHashSet<LazyDatasetTab> loadedTabs = new LinkedHashSet<>();
+    private final int maxLoadedTabs;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dataset-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param maxLoadedTabs how many tabs may hold their dataset at once, the one being viewed included
+     */
+    public DatasetTabRegistry(int maxLoadedTabs) {
+        this.maxLoadedTabs = maxLoadedTabs;
+    }
+
+    public DatasetTabRegistry() {
+        this(DEFAULT_MAX_LOADED_TABS);
+    }
+
+    /**
+     * Adds a tab, after the ones added before it
+     */
+    void register(LazyDatasetTab tab) {
+        tabs.add(tab);
+    }
+
+    /**
+     * Acquires the dataset of a config on the loader thread, one dataset at a time,
+     * so the tab being viewed is never held up by more than the load already running
+     * @param config the dataset to load
+     * @return the handle on the dataset, once it has been loaded, to be closed when the tab is unloaded
+     */
+    CompletableFuture<DataSetRegistry.Handle> load(IConfig config) {
+        return CompletableFuture.supplyAsync(() -> DataSetRegistry.getShared().acquire(
+                config.getDatasetPath(),
+                config.getDatasetSize(),
+                config.getDatasetHeight(),
+                config.getDatasetWidth()
+        ), loader);
+    }
+
+    /**
+     * Marks a tab as the one viewed most recently and unloads the ones over the limit
+     */
+    void viewed(LazyDatasetTab tab) {
+        loadedTabs.remove(tab);
+        loadedTabs.add(tab);
+        unloadStale();
+    }
+
+    /**
+     * Stops counting a tab whose dataset could not be loaded as loaded
+     */
+    void failed(LazyDatasetTab tab) {
+        loadedTabs.remove(tab);
+    }
+
+    /**
+     * Starts loading the tab after the given one, wrapping around, unless it is loaded already
+     */
+    void preloadAfter(LazyDatasetTab tab) {
+        int index = tabs.indexOf(tab);
+        if (index < 0 || tabs.size() < 2 || maxLoadedTabs < 2) {
+            return;
+        }
+        LazyDatasetTab next = tabs.get((index + 1) % tabs.size());
+        if (next.isLoaded()) {
+            return;
+        }
+        System.out.println(String.format(PRELOAD_MSG, next.getText()));
+        next.preload();
+        loadedTabs.add(next);
+        unloadStale();
+    }
+
+    private void unloadStale() {
+        Iterator<LazyDatasetTab> eldest = loadedTabs.iterator();
+        while (loadedTabs.size() > maxLoadedTabs && eldest.hasNext()) {
+            LazyDatasetTab tab = eldest.next();
+            if (tab.isSelected()) {
+                continue;
+            }
+            eldest.remove();
+            tab.unload();
+            System.out.println(String.format(UNLOAD_MSG, tab.getText()));
+        }
+    }
+
+    public int getMaxLoadedTabs() {
+        return maxLoadedTabs;
+    }
+}
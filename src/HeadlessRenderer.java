@@ -0,0 +1,111 @@
+import component.BatchRenderer;
+import component.CameraOrientation;
+import config.BrainConfig;
+import config.CustomConfig;
+import config.HeadConfig;
+import config.IConfig;
+import model.BrickedVolume;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a sequence of frames to PNG files without starting the JavaFX toolkit.
+ * Run with the dataset, the output directory and the orientations to render:
+ * <pre>
+ * HeadlessRenderer head out 0 30 60
+ * HeadlessRenderer brain out turntable:36
+ * HeadlessRenderer resources/scan,113,256,256 out 1,0,0.5,0
+ * HeadlessRenderer scan.bricks out turntable:12
+ * </pre>
+ * The dataset is <code>head</code>, <code>brain</code>, a raw file as <code>path,size,height,width</code>
+ * or a bricked volume file written by {@link BrickConverter}, paged in as it is rendered;
+ * every orientation is an angle in degrees, a quaternion as <code>w,x,y,z</code>
+ * or <code>turntable:N</code> for N angles evenly spread over a full turn
+ *
+ * @author Kasper Krawczyk
+ */
+public class HeadlessRenderer {
+
+    public static final String TURNTABLE_PREFIX = "turntable:";
+    public static final String BRICKS_SUFFIX = ".bricks";
+    public static final double FULL_TURN_DEGREES = 360;
+    public static final String USAGE_MSG =
+            "Usage: HeadlessRenderer <head|brain|path,size,height,width|path.bricks> <output dir> <angle|w,x,y,z|turntable:N>...";
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            System.out.println(USAGE_MSG);
+            return;
+        }
+
+        IConfig config = null;
+        List<CameraOrientation> orientations = new ArrayList<>();
+        try {
+            if (!args[0].endsWith(BRICKS_SUFFIX)) {
+                config = parseConfig(args[0]);
+            }
+            for (int i = 2; i < args.length; i++) {
+                parseOrientations(args[i], orientations);
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE_MSG);
+            return;
+        }
+
+        if (config != null) {
+            try (BatchRenderer batchRenderer = new BatchRenderer(config)) {
+                batchRenderer.renderSequence(orientations, new File(args[1]));
+            } catch (IllegalStateException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        try (BrickedVolume volume = BrickedVolume.open(new File(args[0]))) {
+            //the rows of the bricked volume are the slices of the scan it was converted from
+            config = new CustomConfig(args[0], volume.getHeight(), volume.getDepth(), volume.getWidth());
+            new BatchRenderer(volume, config).renderSequence(orientations, new File(args[1]));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    private static IConfig parseConfig(String text) {
+        if (text.equals("head")) {
+            return new HeadConfig();
+        }
+        if (text.equals("brain")) {
+            return new BrainConfig();
+        }
+        String[] parts = text.split(",");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException(USAGE_MSG);
+        }
+        try {
+            return new CustomConfig(parts[0],
+                    Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(USAGE_MSG);
+        }
+    }
+
+    private static void parseOrientations(String text, List<CameraOrientation> orientations) {
+        if (!text.startsWith(TURNTABLE_PREFIX)) {
+            orientations.add(CameraOrientation.parse(text));
+            return;
+        }
+        int numOfFrames;
+        try {
+            numOfFrames = Integer.parseInt(text.substring(TURNTABLE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(USAGE_MSG);
+        }
+        for (int frame = 0; frame < numOfFrames; frame++) {
+            orientations.add(CameraOrientation.ofAngleDegrees(FULL_TURN_DEGREES * frame / numOfFrames));
+        }
+    }
+}
@@ -88,31 +88,34 @@ public class InputDialog extends BorderPane {
     }
 
     private void buildMainTabPane(Stage stage, IConfig customConfig) {
-        TabPane tabPane = new TabPane();
-        VBox tabVBox = new VBox(tabPane);
-        Tab headTab = new Tab("Head", new TabContentWindow(stage, new HeadConfig()));
-//        Tab multiHeadTab = new Tab("Multi Head");
-        Tab brainTab = new Tab("Brain", new TabContentWindow(stage, new BrainConfig()));
-        Tab customTab = new Tab("Custom Dataset", new TabContentWindow(stage, customConfig));
-
-        tabPane.getTabs().addAll(headTab);
-        Scene scene = new Scene(tabVBox);
-        stage.setScene(scene);
-        stage.show();
+        DatasetTabRegistry registry = new DatasetTabRegistry();
+        showMainTabPane(stage,
+                new LazyDatasetTab("Head", new HeadConfig(), registry),
+                new LazyDatasetTab("Brain", new BrainConfig(), registry),
+                new LazyDatasetTab("Custom Dataset", customConfig, registry));
     }
 
     private void buildMainTabPane(Stage stage) {
         System.out.println("Non-custom");
+        DatasetTabRegistry registry = new DatasetTabRegistry();
+        showMainTabPane(stage,
+                new LazyDatasetTab("Head", new HeadConfig(), registry),
+                new LazyDatasetTab("Brain", new BrainConfig(), registry));
+    }
+
+    /**
+     * Shows the tabs in the stage; none of them loads its dataset until it is selected,
+     * and the first one is selected straight away
+     */
+    private void showMainTabPane(Stage stage, LazyDatasetTab... tabs) {
         TabPane tabPane = new TabPane();
         VBox tabVBox = new VBox(tabPane);
-        Tab headTab = new Tab("Head", new TabContentWindow(stage, new HeadConfig()));
-//        Tab multiHeadTab = new Tab("Multi Head");
-//        Tab brainTab = new Tab("Brain", new TabContentWindow(stage, new BrainConfig()));
-
-        tabPane.getTabs().addAll(headTab);
-        Scene scene = new Scene(tabVBox);
+        tabPane.getTabs().addAll(tabs);
+        stage.setTitle(TabContentWindow.MAIN_TITLE);
+        Scene scene = new Scene(tabVBox, TabContentWindow.MAIN_SIDE, TabContentWindow.MAIN_SIDE);
         stage.setScene(scene);
         stage.show();
+        ((LazyDatasetTab) tabPane.getSelectionModel().getSelectedItem()).show();
     }
 
 }
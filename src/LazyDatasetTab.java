@@ -0,0 +1,119 @@
+import config.IConfig;
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tab;
+import model.DataSetRegistry;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class represents a tab of the main window that creates its dataset, camera and renderer
+ * only once it is first selected. Until then, and while its dataset is loading in the background,
+ * it shows a placeholder; its {@link DatasetTabRegistry} may also preload it or unload it back to the placeholder
+ *
+ * @author Kasper Krawczyk
+ */
+public class LazyDatasetTab extends Tab {
+
+    public static final String LOADING_MSG = "Loading %s...";
+    public static final String LOAD_ERR_MSG = "Error: The %s dataset could not be loaded";
+
+    private final IConfig config;
+    private final DatasetTabRegistry registry;
+    private final Label placeholder;
+    private CompletableFuture<DataSetRegistry.Handle> load;
+    private TabContentWindow window;
+
+    /**
+     * @param name     the title of the tab
+     * @param config   the dataset and the colour mapping to show
+     * @param registry loads the dataset and decides when to unload it
+     */
+    public LazyDatasetTab(String name, IConfig config, DatasetTabRegistry registry) {
+        super(name);
+        this.config = config;
+        this.registry = registry;
+        this.placeholder = new Label(String.format(LOADING_MSG, config.getDatasetPath()));
+        setContent(placeholder);
+        setOnSelectionChanged(event -> {
+            if (isSelected()) {
+                show();
+            }
+        });
+        registry.register(this);
+    }
+
+    /**
+     * Loads the dataset if it is not loaded yet, and builds the window once it is there and the tab is still selected
+     */
+    public void show() {
+        registry.viewed(this);
+        if (window != null) {
+            return;
+        }
+        CompletableFuture<DataSetRegistry.Handle> started = preload();
+        started.whenComplete((handle, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                if (window == null && isSelected()) {
+                    placeholder.setText(String.format(LOAD_ERR_MSG, config.getDatasetPath()));
+                }
+                return;
+            }
+            //unloaded, deselected or already built while the dataset was loading
+            if (load != started || window != null || !isSelected()) {
+                return;
+            }
+            window = new TabContentWindow(config, handle.getDataSet());
+            setContent(window);
+            registry.preloadAfter(this);
+        }));
+    }
+
+    /**
+     * Starts loading the dataset in the background unless it is loading or loaded already.
+     * A load that fails is forgotten, so the next time the tab is selected it is tried again
+     * @return the handle on the dataset, once it has been loaded
+     */
+    CompletableFuture<DataSetRegistry.Handle> preload() {
+        if (load == null) {
+            CompletableFuture<DataSetRegistry.Handle> started = registry.load(config);
+            load = started;
+            started.whenComplete((handle, error) -> {
+                if (error != null) {
+                    Platform.runLater(() -> {
+                        if (load == started) {
+                            load = null;
+                            registry.failed(this);
+                        }
+                    });
+                }
+            });
+        }
+        return load;
+    }
+
+    /**
+     * Drops the window and gives up the dataset, going back to the placeholder until the tab is selected again.
+     * A dataset still loading is given up as soon as it is there
+     */
+    void unload() {
+        if (window != null) {
+            window.dispose();
+            window = null;
+        }
+        if (load != null) {
+            load.thenAccept(DataSetRegistry.Handle::close);
+            load = null;
+        }
+        placeholder.setText(String.format(LOADING_MSG, config.getDatasetPath()));
+        setContent(placeholder);
+    }
+
+    boolean isLoaded() {
+        return load != null;
+    }
+
+    public IConfig getConfig() {
+        return config;
+    }
+}
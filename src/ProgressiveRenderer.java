@@ -0,0 +1,259 @@
+import component.Camera;
+import component.RenderQuality;
+import component.VolumeRenderer;
+import javafx.application.Platform;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import model.DataSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class schedules the renders of the main view on a background thread, off the JavaFX Application Thread.
+ * Requests coalesce: only the latest one is kept, and starting it cancels the frame in flight,
+ * so the latest camera, light and transfer function always win.
+ * Interactive frames are rendered coarsely, with the pixel step adapted to keep them within a time budget,
+ * and refined to full quality in passes once the camera settles.
+ * Finished frames are published to the view with <code>Platform.runLater</code>
+ *
+ * @author Kasper Krawczyk
+ */
+public class ProgressiveRenderer {
+
+    public static final long DEFAULT_INTERACTIVE_BUDGET_MS = 50;
+    public static final double DEFAULT_INTERACTIVE_SAMPLE_STEP = 2;
+    public static final int INITIAL_PIXEL_STEP = 4;
+    public static final int MAX_PIXEL_STEP = 8;
+
+    private final ImageView view;
+    private final VolumeRenderer volumeRenderer;
+    private final DataSet dataSet;
+    private final ExecutorService scheduler = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "render-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Bumped by every request; a frame is cancelled as soon as it no longer matches
+     */
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicReference<FrameRequest> pendingRequest = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * Two framebuffers, each uploaded to its own image, so one can be rendered while the other is published
+     */
+    private final int[][] frameBuffers = new int[2][Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+    private final WritableImage[] frameImages = {
+            new WritableImage(Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT),
+            new WritableImage(Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT)
+    };
+    private final CountDownLatch[] published = {new CountDownLatch(0), new CountDownLatch(0)};
+    private int backBuffer = 0;
+
+    private volatile long interactiveBudgetMillis = DEFAULT_INTERACTIVE_BUDGET_MS;
+    private volatile double interactiveSampleStep = DEFAULT_INTERACTIVE_SAMPLE_STEP;
+    private volatile int interactivePixelStep = INITIAL_PIXEL_STEP;
+
+    public ProgressiveRenderer(ImageView view, VolumeRenderer volumeRenderer, DataSet dataSet) {
+        this.view = view;
+        this.volumeRenderer = volumeRenderer;
+        this.dataSet = dataSet;
+    }
+
+    /**
+     * Requests a coarse frame for the current camera, for use while it is being dragged
+     */
+    public void renderInteractive() {
+        submit(true, interactivePasses());
+    }
+
+    /**
+     * Requests the current camera refined to full quality, halving the pixel step on every pass
+     */
+    public void refine() {
+        submit(false, refinementPasses(interactivePixelStep / 2));
+    }
+
+    /**
+     * Requests a coarse frame followed by the refinement passes, for one-off changes such as a slider step
+     */
+    public void renderProgressive() {
+        List<RenderQuality> passes = interactivePasses();
+        passes.addAll(refinementPasses(interactivePixelStep / 2));
+        submit(true, passes);
+    }
+
+    /**
+     * Requests the current camera at full quality in a single pass
+     */
+    public void renderFull() {
+        submit(false, refinementPasses(1));
+    }
+
+    private List<RenderQuality> interactivePasses() {
+        List<RenderQuality> passes = new ArrayList<>();
+        passes.add(new RenderQuality(interactivePixelStep, interactiveSampleStep));
+        return passes;
+    }
+
+    private static List<RenderQuality> refinementPasses(int pixelStep) {
+        List<RenderQuality> passes = new ArrayList<>();
+        for (int step = Math.max(1, pixelStep); step > 1; step /= 2) {
+            passes.add(new RenderQuality(step, 1));
+        }
+        passes.add(RenderQuality.FULL);
+        return passes;
+    }
+
+    /**
+     * Replaces the pending request and makes sure the scheduler thread is draining them
+     */
+    private void submit(boolean startsInteractive, List<RenderQuality> passes) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        pendingRequest.set(new FrameRequest(generation.incrementAndGet(), startsInteractive, passes));
+        if (draining.compareAndSet(false, true)) {
+            scheduler.execute(this::drainRequests);
+        }
+    }
+
+    private void drainRequests() {
+        while (true) {
+            FrameRequest request = pendingRequest.getAndSet(null);
+            if (request == null) {
+                draining.set(false);
+                //a request may have slipped in after the last poll but before the flag was cleared
+                if (pendingRequest.get() == null || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                renderPasses(request);
+            } catch (RuntimeException e) {
+                //a failed frame must not stop the scheduler from serving the next request
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void renderPasses(FrameRequest request) {
+        for (int pass = 0; pass < request.passes.size(); pass++) {
+            if (request.isSuperseded()) {
+                return;
+            }
+            int buffer = backBuffer;
+            awaitPublished(buffer);
+
+            long start = System.nanoTime();
+            boolean completed = volumeRenderer.renderFrame(
+                    dataSet.getVolume(), request.passes.get(pass), frameBuffers[buffer], request::isSuperseded);
+            if (!completed) {
+                return;
+            }
+            boolean cached = volumeRenderer.isLastFrameCached();
+            if (pass == 0 && request.startsInteractive && !cached) {
+                adaptPixelStep((System.nanoTime() - start) / 1_000_000);
+            }
+            publish(buffer);
+            backBuffer ^= 1;
+            //a cached frame is already at full quality, there is nothing left to refine
+            if (cached) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Doubles the pixel step when an interactive frame overran the budget,
+     * and halves it when a frame four times as expensive would still have fit in it
+     */
+    private void adaptPixelStep(long elapsedMillis) {
+        if (elapsedMillis > interactiveBudgetMillis && interactivePixelStep < MAX_PIXEL_STEP) {
+            interactivePixelStep *= 2;
+        } else if (elapsedMillis * 4 < interactiveBudgetMillis && interactivePixelStep > 1) {
+            interactivePixelStep /= 2;
+        }
+    }
+
+    private void publish(int buffer) {
+        CountDownLatch latch = new CountDownLatch(1);
+        published[buffer] = latch;
+        Platform.runLater(() -> {
+            VolumeRenderer.uploadFrame(frameBuffers[buffer], frameImages[buffer]);
+            view.setImage(frameImages[buffer]);
+            latch.countDown();
+        });
+    }
+
+    /**
+     * Waits until the last frame rendered into the buffer has been uploaded,
+     * so it is not overwritten while the FX thread is still reading it
+     */
+    private void awaitPublished(int buffer) {
+        try {
+            published[buffer].await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Cancels the frame in flight and stops the scheduler thread; no request is served afterwards
+     */
+    public void shutdown() {
+        generation.incrementAndGet();
+        pendingRequest.set(null);
+        scheduler.shutdown();
+    }
+
+    /**
+     * Sets the time an interactive frame should take, which bounds the wait for the first frame of a drag
+     * @param interactiveBudgetMillis the budget in milliseconds
+     */
+    public void setInteractiveBudgetMillis(long interactiveBudgetMillis) {
+        this.interactiveBudgetMillis = interactiveBudgetMillis;
+    }
+
+    public long getInteractiveBudgetMillis() {
+        return interactiveBudgetMillis;
+    }
+
+    public void setInteractiveSampleStep(double interactiveSampleStep) {
+        this.interactiveSampleStep = interactiveSampleStep;
+    }
+
+    public double getInteractiveSampleStep() {
+        return interactiveSampleStep;
+    }
+
+    /**
+     * One render request: the qualities to render in turn, stopped once a newer request arrives
+     */
+    private class FrameRequest {
+        private final int generation;
+        private final boolean startsInteractive;
+        private final List<RenderQuality> passes;
+
+        FrameRequest(int generation, boolean startsInteractive, List<RenderQuality> passes) {
+            this.generation = generation;
+            this.startsInteractive = startsInteractive;
+            this.passes = passes;
+        }
+
+        boolean isSuperseded() {
+            return generation != ProgressiveRenderer.this.generation.get();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+import component.Camera;
+import component.RayCastingEngine;
+import component.RenderQuality;
+import component.VolumeRenderer;
+import config.HeadConfig;
+import javafx.scene.paint.Color;
+import mathutil.Gradients;
+import mathutil.Reflections;
+import model.AABB;
+import model.DataSet;
+import model.Ray;
+import model.SyntheticVolume;
+import model.Vector3D;
+import model.VolumeBuffer;
+import model.Voxel;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times the hot paths of the volume renderer on a synthetic head, so it runs without the CThead file.
+ * Every benchmark is warmed up first, then timed over a number of iterations, reporting the mean time per operation,
+ * the bytes allocated per operation by all threads and the collections that ran while it was timed.
+ * Run with a substring of the benchmark names as the optional first argument to run only those,
+ * and with <code>--add-modules jdk.incubator.vector</code> to include the packet ray caster
+ *
+ * @author Kasper Krawczyk
+ */
+public class RenderingBenchmarks {
+
+    public static final int WARMUP_ITERATIONS = 5;
+    public static final int MEASURED_ITERATIONS = 10;
+    public static final int NUM_OF_POSITIONS = 1 << 16;
+    public static final int[] RESCALE_SIDES = {32, 64};
+    public static final double[] ANGLES = {0, 45, 90, 150};
+    public static final int[] THREAD_COUNTS = {1, 2, 4};
+    public static final long SEED = 42;
+    public static final String HEADER_MSG = String.format("%-56s %14s %14s %6s %8s",
+            "Benchmark", "ns/op", "B/op", "GCs", "GC ms");
+    public static final String RESULT_MSG = "%-56s %14.1f %14.1f %6d %8d";
+    public static final String ALLOCATION_UNSUPPORTED_MSG =
+            "Allocated bytes per thread are not measurable on this JVM, B/op is reported as -1";
+
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCountingThreads();
+    /**
+     * Every result is folded into this so the JIT cannot drop the work being timed
+     */
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        String filter = args.length > 0 ? args[0] : "";
+        HeadConfig config = new HeadConfig();
+        DataSet dataSet = new DataSet("synthetic head", SyntheticVolume.createHead(
+                config.getDatasetSize(), config.getDatasetHeight(), config.getDatasetWidth()));
+        VolumeBuffer vol = dataSet.getVolume();
+        short[][][] jagged = dataSet.getBytes();
+        Camera camera = new Camera(config);
+        VolumeRenderer volumeRenderer = new VolumeRenderer(camera, config.getHuToColorMap());
+        volumeRenderer.setValueRange(dataSet.getMinVolValue(), dataSet.getMaxVolValue());
+        volumeRenderer.setOpacityLUT(dataSet.getOpacityLUT());
+        volumeRenderer.setMacroCellGrid(dataSet.getMacroCellGrid());
+        volumeRenderer.setMinMaxOctree(dataSet.getMinMaxOctree());
+        volumeRenderer.setGradientField(dataSet::getGradientField);
+        //every frame is rendered, not copied from an earlier one
+        volumeRenderer.setFrameCache(null);
+
+        if (THREADS == null) {
+            System.out.println(ALLOCATION_UNSUPPORTED_MSG);
+        }
+        System.out.println(HEADER_MSG);
+
+        Random random = new Random(SEED);
+        double[] positions = new double[NUM_OF_POSITIONS * 3];
+        for (int i = 0; i < NUM_OF_POSITIONS; i++) {
+            positions[i * 3] = random.nextDouble() * (vol.getDepth() - 1);
+            positions[i * 3 + 1] = random.nextDouble() * (vol.getHeight() - 1);
+            positions[i * 3 + 2] = random.nextDouble() * (vol.getWidth() - 1);
+        }
+
+        run(filter, "Gradients.tlerp[buffer]", NUM_OF_POSITIONS, () -> {
+            long sum = 0;
+            for (int i = 0; i < positions.length; i += 3) {
+                sum += Gradients.tlerp(positions[i], positions[i + 1], positions[i + 2], vol);
+            }
+            return sum;
+        });
+        run(filter, "Gradients.tlerp[jagged]", NUM_OF_POSITIONS, () -> {
+            long sum = 0;
+            for (int i = 0; i < positions.length; i += 3) {
+                sum += Gradients.tlerp(positions[i], positions[i + 1], positions[i + 2], jagged);
+            }
+            return sum;
+        });
+        run(filter, "Gradients.get3DGradientInterpolated3D[buffer]", NUM_OF_POSITIONS, () -> {
+            double sum = 0;
+            for (int i = 0; i < positions.length; i += 3) {
+                sum += Gradients.get3DGradientInterpolated3D(positions[i], positions[i + 1], positions[i + 2], vol)
+                        .getX();
+            }
+            return (long) sum;
+        });
+        run(filter, "Gradients.get3DGradientInterpolated3D[jagged]", NUM_OF_POSITIONS, () -> {
+            double sum = 0;
+            for (int i = 0; i < positions.length; i += 3) {
+                sum += Gradients.get3DGradientInterpolated3D(positions[i], positions[i + 1], positions[i + 2], jagged)
+                        .getX();
+            }
+            return (long) sum;
+        });
+        for (int side : RESCALE_SIDES) {
+            //laid out like the slices of the CThead file, which is what the rescaling is written for
+            short[][][] small = SyntheticVolume.createHead(side / 2, side, side);
+            run(filter, "Gradients.rescaleTricubic[" + side + " -> " + side * 2 + "]", 1,
+                    () -> Gradients.rescaleTricubic(small, side * 2, side * 2, side * 2)[side][side][side]);
+        }
+
+        AABB aabb = VolumeRenderer.getVolumeAabb(vol);
+        Ray[] rays = new Ray[NUM_OF_POSITIONS];
+        for (int i = 0; i < rays.length; i++) {
+            Vector3D target = new Vector3D(positions[i * 3 + 2], positions[i * 3 + 1], positions[i * 3]);
+            rays[i] = new Ray(camera.getEye(), target.sub(camera.getEye()));
+        }
+        run(filter, "AABB.getIntersections", NUM_OF_POSITIONS, () -> {
+            long hits = 0;
+            for (Ray ray : rays) {
+                if (aabb.getIntersections(ray, 0, Float.MAX_VALUE) != null) {
+                    hits++;
+                }
+            }
+            return hits;
+        });
+
+        //a ray through the middle of the head, from one side of the volume to the other, in volume coordinates
+        Vector3D entry = new Vector3D(0, vol.getHeight() * 0.5, vol.getDepth() * 0.4);
+        Vector3D exit = new Vector3D(vol.getWidth() - 1, vol.getHeight() * 0.6, vol.getDepth() * 0.6);
+        for (boolean precomputed : new boolean[]{false, true}) {
+            String name = "VolumeRenderer.collectSamples[" + (precomputed ? "field" : "differences") + "]";
+            //switching to the gradient field builds it, so only when this benchmark runs
+            if (!name.contains(filter)) {
+                continue;
+            }
+            volumeRenderer.setUsePrecomputedGradients(precomputed);
+            run(filter, name, 1, () -> volumeRenderer.collectSamples(entry, exit, vol).size());
+        }
+        volumeRenderer.setUsePrecomputedGradients(false);
+        ArrayList<Voxel> samples = volumeRenderer.collectSamples(entry, exit, vol);
+        run(filter, "VolumeRenderer.compositeSamples", 1,
+                () -> (long) (volumeRenderer.compositeSamples(samples).getOpacity() * 1000));
+
+        Vector3D[] gradients = new Vector3D[NUM_OF_POSITIONS];
+        Vector3D[] points = new Vector3D[NUM_OF_POSITIONS];
+        for (int i = 0; i < gradients.length; i++) {
+            gradients[i] = new Vector3D(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+            points[i] = new Vector3D(positions[i * 3 + 2], positions[i * 3 + 1], positions[i * 3]);
+        }
+        Color skin = Color.color(1, 0.79, 0.6);
+        run(filter, "Reflections.applyLambertianReflection", NUM_OF_POSITIONS, () -> {
+            double sum = 0;
+            for (int i = 0; i < gradients.length; i++) {
+                sum += Reflections.applyLambertianReflection(camera.getLight(), points[i], gradients[i], skin)
+                        .getRed();
+            }
+            return (long) sum;
+        });
+
+        List<RayCastingEngine> engines = new ArrayList<>();
+        for (RayCastingEngine engine : RayCastingEngine.values()) {
+            if (engine.isAvailable()) {
+                engines.add(engine);
+            }
+        }
+        int[] frameBuffer = new int[Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+        for (int threads : THREAD_COUNTS) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            volumeRenderer.setRenderPool(pool);
+            for (RayCastingEngine engine : engines) {
+                volumeRenderer.setRayCastingEngine(engine);
+                for (double angle : ANGLES) {
+                    camera.initCamera();
+                    camera.moveViewPortByAngleDegrees(angle);
+                    run(filter, String.format("VolumeRenderer.renderFrame[%s, %d threads, %.0f deg]",
+                            engine, threads, angle), 1, () -> {
+                        volumeRenderer.renderFrame(vol, RenderQuality.FULL, frameBuffer, () -> false);
+                        return frameBuffer[frameBuffer.length / 2];
+                    });
+                }
+            }
+            volumeRenderer.setRenderPool(null);
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Warms the benchmark up, then times it and prints a line of results
+     * @param filter           the substring the name has to contain for the benchmark to run
+     * @param name             the name to report the benchmark by
+     * @param opsPerIteration  the number of operations every call of <code>iteration</code> performs
+     * @param iteration        one iteration of the benchmark, returning a value that depends on all its work
+     */
+    private static void run(String filter, String name, int opsPerIteration, Iteration iteration) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += iteration.run();
+        }
+
+        long collections = getCollectionCount();
+        long collectionMillis = getCollectionMillis();
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += iteration.run();
+        }
+        long nanos = System.nanoTime() - start;
+        long allocatedAfter = getAllocatedBytes();
+
+        double ops = (double) MEASURED_ITERATIONS * opsPerIteration;
+        double bytesPerOp = THREADS == null ? -1 : (allocatedAfter - allocated) / ops;
+        System.out.println(String.format(RESULT_MSG, name, nanos / ops, bytesPerOp,
+                getCollectionCount() - collections, getCollectionMillis() - collectionMillis));
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads, the render workers included
+     */
+    private static long getAllocatedBytes() {
+        if (THREADS == null) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long getCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getCollectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreads() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * One iteration of a benchmark
+     */
+    private interface Iteration {
+        long run();
+    }
+}
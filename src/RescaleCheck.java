@@ -0,0 +1,67 @@
+import mathutil.Gradients;
+import model.SyntheticVolume;
+import model.VolumeBuffer;
+
+/**
+ * Checks that the parallel tricubic rescale gives the same samples as the original one, voxel by voxel,
+ * on a volume of the CThead shape and on one with odd dimensions.
+ * Exits with a non-zero status if any voxel differs
+ *
+ * @author Kasper Krawczyk
+ */
+public class RescaleCheck {
+
+    /**
+     * The source shapes as {size, height, width}, followed by the sizes the volume is rescaled to,
+     * in the order {@link Gradients#rescaleTricubic(short[][][], int, int, int)} takes them
+     */
+    public static final int[][][] SHAPES = {
+            {{113, 256, 256}, {256, 226, 256}},
+            {{37, 53, 71}, {45, 61, 83}}
+    };
+    public static final String RESULT_MSG = "%dx%dx%d -> %dx%dx%d: %d of %d voxels differ";
+    public static final String SHAPE_DIFF_MSG = "The volume is %dx%dx%d, expected %dx%dx%d";
+    public static final String FIRST_DIFF_MSG = "  first difference at z %d, y %d, x %d: %d, expected %d";
+
+    public static void main(String[] args) {
+        long totalDifferences = 0;
+        for (int[][] shape : SHAPES) {
+            int[] source = shape[0];
+            int[] rescaled = shape[1];
+            short[][][] slices = SyntheticVolume.createHead(source[0], source[1], source[2],
+                    SyntheticVolume.DEFAULT_SEED);
+            short[][][] expected = Gradients.rescaleTricubic(slices, rescaled[0], rescaled[1], rescaled[2]);
+            VolumeBuffer actual = Gradients.rescaleTricubicParallel(slices, rescaled[0], rescaled[1], rescaled[2]);
+            totalDifferences += countDifferences(source, rescaled, expected, actual);
+        }
+        if (totalDifferences > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static long countDifferences(int[] source, int[] rescaled, short[][][] expected, VolumeBuffer actual) {
+        long differences = 0;
+        if (actual.getDepth() != expected.length || actual.getHeight() != expected[0].length
+                || actual.getWidth() != expected[0][0].length) {
+            System.out.println(String.format(SHAPE_DIFF_MSG, actual.getDepth(), actual.getHeight(), actual.getWidth(),
+                    expected.length, expected[0].length, expected[0][0].length));
+            return actual.getLength();
+        }
+        for (int z = 0; z < expected.length; z++) {
+            for (int y = 0; y < expected[z].length; y++) {
+                for (int x = 0; x < expected[z][y].length; x++) {
+                    if (actual.get(z, y, x) != expected[z][y][x]) {
+                        if (differences == 0) {
+                            System.out.println(String.format(FIRST_DIFF_MSG, z, y, x,
+                                    actual.get(z, y, x), expected[z][y][x]));
+                        }
+                        differences++;
+                    }
+                }
+            }
+        }
+        System.out.println(String.format(RESULT_MSG, source[0], source[1], source[2],
+                rescaled[0], rescaled[1], rescaled[2], differences, (long) actual.getLength()));
+        return differences;
+    }
+}
@@ -0,0 +1,75 @@
+import component.Camera;
+import component.EmptySpaceSkipping;
+import component.RenderQuality;
+import component.VolumeRenderer;
+import config.HeadConfig;
+import model.DataSet;
+
+/**
+ * Compares the empty-space skipping modes of the ray caster on a dataset:
+ * for every mode and camera angle it reports the samples taken per frame and the time per frame,
+ * and counts the pixels that differ from the frame rendered without skipping.
+ * Run with the dataset path as the optional first argument, defaulting to the head config
+ *
+ * @author Kasper Krawczyk
+ */
+public class SkippingBenchmark {
+
+    public static final double[] ANGLES = {0, 30, 75, 140};
+    public static final int FRAMES_PER_ANGLE = 3;
+    public static final String RESULT_MSG = "%-12s angle %5.1f: %,12d samples/frame %8.1f ms/frame %s";
+    public static final String DIFF_MSG = "%d pixels differ";
+
+    public static void main(String[] args) {
+        HeadConfig config = new HeadConfig();
+        if (args.length > 0) {
+            config.setDatasetPath(args[0]);
+        }
+        DataSet dataSet = new DataSet(
+                config.getDatasetPath(),
+                config.getDatasetSize(),
+                config.getDatasetHeight(),
+                config.getDatasetWidth()
+        );
+        Camera camera = new Camera(config);
+        VolumeRenderer volumeRenderer = new VolumeRenderer(camera, config.getHuToColorMap());
+        volumeRenderer.setValueRange(dataSet.getMinVolValue(), dataSet.getMaxVolValue());
+        volumeRenderer.setOpacityLUT(dataSet.getOpacityLUT());
+        volumeRenderer.setMacroCellGrid(dataSet.getMacroCellGrid());
+        volumeRenderer.setMinMaxOctree(dataSet.getMinMaxOctree());
+        //every frame is rendered, not copied from an earlier one
+        volumeRenderer.setFrameCache(null);
+
+        int[] reference = new int[Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+        int[] frameBuffer = new int[Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+        for (double angle : ANGLES) {
+            camera.initCamera();
+            camera.moveViewPortByAngleDegrees(angle);
+            for (EmptySpaceSkipping mode : EmptySpaceSkipping.values()) {
+                volumeRenderer.setEmptySpaceSkipping(mode);
+                int[] target = mode == EmptySpaceSkipping.NONE ? reference : frameBuffer;
+                long bestNanos = Long.MAX_VALUE;
+                for (int frame = 0; frame < FRAMES_PER_ANGLE; frame++) {
+                    long start = System.nanoTime();
+                    volumeRenderer.renderFrame(dataSet.getVolume(), RenderQuality.FULL, target, () -> false);
+                    bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+                }
+                String check = mode == EmptySpaceSkipping.NONE
+                        ? ""
+                        : String.format(DIFF_MSG, countDifferences(reference, frameBuffer));
+                System.out.println(String.format(RESULT_MSG, mode, angle,
+                        volumeRenderer.getLastFrameSamples(), bestNanos / 1e6, check));
+            }
+        }
+    }
+
+    private static int countDifferences(int[] reference, int[] frameBuffer) {
+        int differences = 0;
+        for (int pixel = 0; pixel < reference.length; pixel++) {
+            if (reference[pixel] != frameBuffer[pixel]) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+}
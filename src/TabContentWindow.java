@@ -1,7 +1,9 @@
 import component.Camera;
+import component.RayCastingEngine;
 import config.IConfig;
 import config.HeadConfig;
 import component.VolumeRenderer;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.FXCollections;
@@ -25,6 +27,7 @@ import javafx.stage.Stage;
 import mathutil.ImageUtil;
 import model.*;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -39,6 +42,8 @@ public class TabContentWindow extends BorderPane {
     public static final int MAIN_SIDE = 1024;
     public static final String BILINEAR_BTN_MSG = "Bilinear";
     public static final String RENDER_BTN_MSG = "Volume Rendering";
+    public static final String GRADIENTS_BTN_MSG = "Precomputed gradients";
+    public static final String PACKETS_BTN_MSG = "Vector packets";
     public static final String CT_HEAD_PATH = "CThead";
     public static final int CT_HEAD_SIDE = 256;
 
@@ -54,6 +59,8 @@ public class TabContentWindow extends BorderPane {
     private final Slider sizeSlider;
     private final Slider angleSlider;
     private final ToggleButton renderButton;
+    private final CheckBox gradientsCheckBox;
+    private final CheckBox packetsCheckBox;
 
     private Algo currentAlgo;
     private DataSet dataSet;
@@ -63,8 +70,13 @@ public class TabContentWindow extends BorderPane {
     private ImageView mainView;
     private TrackballPane trackballPane;
     private Trackball trackball;
+    private ProgressiveRenderer progressiveRenderer;
     private Camera camera;
     private int currentSize;
+    /**
+     * The reference to the shared dataset held by a standalone window, null when the dataset is lent to it
+     */
+    private DataSetRegistry.Handle dataSetHandle;
 
 
     /**
@@ -73,28 +85,57 @@ public class TabContentWindow extends BorderPane {
      * @param stage the stage on which to build the window
      */
     public TabContentWindow(Stage stage, IConfig config) {
+        this(config, DataSetRegistry.getShared().acquire(
+                config.getDatasetPath(),
+                config.getDatasetSize(),
+                config.getDatasetHeight(),
+                config.getDatasetWidth()
+        ));
         stage.setTitle(MAIN_TITLE);
+
+        Scene scene = new Scene(this, MAIN_SIDE, MAIN_SIDE);
+        stage.setScene(scene);
+        stage.show();
+    }
+
+    private TabContentWindow(IConfig config, DataSetRegistry.Handle dataSetHandle) {
+        this(config, dataSetHandle.getDataSet());
+        this.dataSetHandle = dataSetHandle;
+    }
+
+    /**
+     * Creates the contents of the main window for a dataset that has already been loaded,
+     * e.g. to be shown in a tab, without touching the stage
+     *
+     * @param config  the colour mapping and the dimensions to place the camera by
+     * @param dataSet the dataset of the config
+     */
+    public TabContentWindow(IConfig config, DataSet dataSet) {
         this.setMinHeight(MAIN_SIDE);
         this.setMinWidth(MAIN_SIDE);
         this.camera = new Camera(config);
 
-        this.dataSet = new DataSet(
-                config.getDatasetPath(),
-                config.getDatasetSize(),
-                config.getDatasetHeight(),
-                config.getDatasetWidth()
-        );
+        this.dataSet = dataSet;
         this.currentAlgo = Algo.BILINEAR;
         this.currentSize = CT_HEAD_SIDE;
         this.volumeRenderer = new VolumeRenderer(camera, config.getHuToColorMap());
+        this.volumeRenderer.setGradientField(dataSet::getGradientField);
+        this.volumeRenderer.setMacroCellGrid(dataSet.getMacroCellGrid());
+        this.volumeRenderer.setMinMaxOctree(dataSet.getMinMaxOctree());
+        this.volumeRenderer.setValueRange(dataSet.getMinVolValue(), dataSet.getMaxVolValue());
+        this.volumeRenderer.setOpacityLUT(dataSet.getOpacityLUT());
 
         this.mainView = new ImageView(mainImage);
+        this.progressiveRenderer = new ProgressiveRenderer(mainView, volumeRenderer, dataSet);
         this.sizeSlider = new Slider(MIN_SIZE_SLIDER_VAL, MAX_SIZE_SLIDER_VAL, CT_HEAD_SIDE);
         this.angleSlider = new Slider(0.0, 90.0, 0.0);
         this.renderButton = new RadioButton(RENDER_BTN_MSG);
-        this.trackballPane = new TrackballPane(mainView, volumeRenderer, camera, dataSet);
+        this.gradientsCheckBox = new CheckBox(GRADIENTS_BTN_MSG);
+        this.packetsCheckBox = new CheckBox(PACKETS_BTN_MSG);
+        this.packetsCheckBox.setDisable(!RayCastingEngine.PACKET.isAvailable());
+        this.trackballPane = new TrackballPane(camera, progressiveRenderer);
         this.topHBox = new HBox();
-        this.topHBox.getChildren().addAll(sizeSlider, angleSlider, renderButton);
+        this.topHBox.getChildren().addAll(sizeSlider, angleSlider, renderButton, gradientsCheckBox, packetsCheckBox);
         this.rightVBox = new VBox();
         this.leftVBox = new VBox();
         this.rightVBox.getChildren().addAll(
@@ -104,19 +145,30 @@ public class TabContentWindow extends BorderPane {
                 buildCameraInputs());
         this.leftVBox.getChildren().addAll(
                 buildColorMappingVBox());
-        this.trackball = new Trackball(mainView, volumeRenderer, camera, dataSet);
+        this.trackball = new Trackball(mainView, camera, progressiveRenderer);
 
-        ImageUtil.writeHistogram(dataSet.getBytes());
+        //written once it has been counted in the background, so the tab does not wait for it
+        dataSet.getHistogramAsync().thenAccept(ImageUtil::writeHistogram);
 
 //        Image initRender = (component.VolumeRenderer.volumeRayCastParallelized(model.DataSet.getBytes(),
 //                80));
 //        mainView.setImage(initRender);
 
 
-        this.renderButton.setOnAction(event -> {
-            Image renderedImage = (volumeRenderer.volumeRayCastParallelized(dataSet.getBytes(),
-                    Trackball.NUM_OF_THREADS));
-            mainView.setImage(renderedImage);
+        this.renderButton.setOnAction(event -> progressiveRenderer.renderFull());
+
+        //the gradient field may have to be built first, so it is not asked for on the application thread
+        this.gradientsCheckBox.setOnAction(event -> {
+            boolean selected = gradientsCheckBox.isSelected();
+            CompletableFuture.runAsync(() -> volumeRenderer.setUsePrecomputedGradients(selected))
+                    .thenRun(() -> Platform.runLater(progressiveRenderer::renderFull));
+        });
+
+        this.packetsCheckBox.setOnAction(event -> {
+            volumeRenderer.setRayCastingEngine(packetsCheckBox.isSelected()
+                    ? RayCastingEngine.PACKET
+                    : RayCastingEngine.SCALAR);
+            progressiveRenderer.renderFull();
         });
 
         this.sizeSlider.valueProperty().addListener(new ChangeListener<Number>() {
@@ -141,9 +193,7 @@ public class TabContentWindow extends BorderPane {
                 System.out.println(newValue.doubleValue());
                 camera.moveViewPortByAngleDegrees(newValue.doubleValue());
 
-                Image renderedImage = (volumeRenderer.volumeRayCastParallelized(dataSet.getBytes(),
-                        Trackball.NUM_OF_THREADS));
-                mainView.setImage(renderedImage);
+                progressiveRenderer.renderProgressive();
             }
         });
 
@@ -152,11 +202,19 @@ public class TabContentWindow extends BorderPane {
         this.setRight(rightVBox);
         this.setCenter(mainView);
         this.setLeft(leftVBox);
+    }
 
-        Scene scene = new Scene(this, MAIN_SIDE, MAIN_SIDE);
-        stage.setScene(scene);
-        stage.show();
-
+    /**
+     * Stops the renders of the window, once it is no longer shown and its dataset is being unloaded,
+     * lets go of the gradient field of its renderer and gives up the dataset if the window holds it.
+     * The dataset may be shared, so what is derived from it is only dropped once its last handle is closed
+     */
+    public void dispose() {
+        progressiveRenderer.shutdown();
+        volumeRenderer.setGradientField(null);
+        if (dataSetHandle != null) {
+            dataSetHandle.close();
+        }
     }
 
 
@@ -256,9 +314,7 @@ public class TabContentWindow extends BorderPane {
                     return;
                 }
                 camera.moveLightTo(new Point3D(newX, newY, newZ));
-                Image renderedImage = (volumeRenderer.volumeRayCastParallelized(dataSet.getBytes(),
-                        Trackball.NUM_OF_THREADS));
-                mainView.setImage(renderedImage);
+                progressiveRenderer.renderFull();
             }
         });
         GridPane.setConstraints(labelX, 0, 0);
@@ -281,9 +337,7 @@ public class TabContentWindow extends BorderPane {
                                         observable, Number oldValue, Number newValue) {
                 camera.updateViewPort(newValue.intValue());
                 System.out.println(newValue);
-                Image renderedImage = (volumeRenderer.volumeRayCastParallelized(dataSet.getBytes(),
-                        Trackball.NUM_OF_THREADS));
-                mainView.setImage(renderedImage);
+                progressiveRenderer.renderProgressive();
             }
         });
 
@@ -1,31 +1,25 @@
 import component.Camera;
-import component.VolumeRenderer;
 import javafx.geometry.Point2D;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import model.DataSet;
 import model.Quaternion;
 import model.Vector3D;
 
 public class Trackball {
     public static final double MIN_DIST = 0.001;
     public static final float RADIUS = 1;
-    public static final int NUM_OF_THREADS = 60;
 
     private final ImageView mainView;
-    private final VolumeRenderer volumeRenderer;
     private final Camera camera;
-    private final DataSet dataSet;
+    private final ProgressiveRenderer progressiveRenderer;
 
     private Quaternion lastQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
     private Quaternion curQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
     private Point2D start;
 
-    public Trackball(ImageView mainView, VolumeRenderer volumeRenderer, Camera camera, DataSet dataSet) {
+    public Trackball(ImageView mainView, Camera camera, ProgressiveRenderer progressiveRenderer) {
         this.mainView = mainView;
-        this.volumeRenderer = volumeRenderer;
         this.camera = camera;
-        this.dataSet = dataSet;
+        this.progressiveRenderer = progressiveRenderer;
 
         this.mainView.setOnMousePressed(event -> {
             this.start = new Point2D(event.getX(), event.getY());
@@ -46,11 +40,7 @@ public class Trackball {
                 this.curQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
                 this.start = new Point2D(event.getX(), event.getY());
                 camera.moveViewPortByRotator(this.lastQuat);
-                Image renderedImage = (volumeRenderer.volumeRayCastParallelized(
-                        dataSet.getBytes(),
-                        NUM_OF_THREADS)
-                );
-                this.mainView.setImage(renderedImage);
+                progressiveRenderer.renderInteractive();
             //}
 
         });
@@ -65,13 +55,7 @@ public class Trackball {
             this.curQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
             this.start = null;
             camera.moveViewPortByRotator(this.lastQuat);
-
-
-            Image renderedImage = (volumeRenderer.volumeRayCastParallelized(
-                    dataSet.getBytes(),
-                    NUM_OF_THREADS)
-            );
-            this.mainView.setImage(renderedImage);
+            progressiveRenderer.refine();
 
         });
 
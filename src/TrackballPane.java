@@ -1,7 +1,5 @@
 import component.Camera;
-import component.VolumeRenderer;
 import javafx.geometry.Point2D;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.image.WritableImage;
 import javafx.scene.layout.StackPane;
@@ -10,7 +8,6 @@ import mathutil.Gradients;
 import mathutil.Reflections;
 import mathutil.ImageUtil;
 import mathutil.TrigUtil;
-import model.DataSet;
 import model.Point3D;
 import model.Quaternion;
 import model.Vector3D;
@@ -22,24 +19,20 @@ public class TrackballPane extends StackPane {
     public static final float RADIUS = 1;
 
     private WritableImage trackballImage = new WritableImage(SIDE, SIDE);
-    private final ImageView mainView;
-    private final VolumeRenderer volumeRenderer;
     private final Camera camera;
-    private final DataSet dataSet;
+    private final ProgressiveRenderer progressiveRenderer;
     private ImageView trackballView = new ImageView(trackballImage);
     private Quaternion lastQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
     private Quaternion curQuat = Quaternion.makeExactQuaternionRadians(1, Vector3D.NULL);
     private Point2D start;
 
-    public TrackballPane(ImageView view, VolumeRenderer volumeRenderer, Camera camera, DataSet dataSet) {
+    public TrackballPane(Camera camera, ProgressiveRenderer progressiveRenderer) {
         super();
         paintImage3();
-        this.mainView = view;
-        this.volumeRenderer = volumeRenderer;
         this.getChildren().add(trackballView);
         this.trackballView.setImage(trackballImage);
         this.camera = camera;
-        this.dataSet = dataSet;
+        this.progressiveRenderer = progressiveRenderer;
 
         // for debugging purposes
         this.trackballView.setOnMouseMoved(event -> {
@@ -79,11 +72,7 @@ public class TrackballPane extends StackPane {
             this.start = null;
             camera.moveViewPortByRotator(this.lastQuat);
 
-            Image renderedImage = (volumeRenderer.volumeRayCastParallelized(
-                    dataSet.getBytes(),
-                    Trackball.NUM_OF_THREADS)
-            );
-            this.mainView.setImage(renderedImage);
+            progressiveRenderer.renderProgressive();
 
         });
 
@@ -0,0 +1,211 @@
+package component;
+
+import config.IConfig;
+import model.BrickedVolume;
+import model.DataSet;
+import model.DataSetRegistry;
+import model.MacroCellGrid;
+import model.MinMaxOctree;
+import model.Volume;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class renders sequences of frames to PNG files without a display, e.g. turntables and thumbnails on a server.
+ * The frames are cast across all cores through a {@link FramePipeline}, while the finished ones are encoded
+ * on a writer thread through <code>ImageIO</code>, so the JavaFX toolkit is never started.
+ * A dataset is shared through the {@link DataSetRegistry} with anything else in the process showing it,
+ * and given up when the renderer is closed
+ *
+ * @author Kasper Krawczyk
+ */
+public class BatchRenderer implements AutoCloseable {
+
+    public static final String FRAME_FILE_NAME = "frame_%04d.png";
+    public static final String FRAME_MSG = "Frame %d (%s): rendered in %.1f ms";
+    public static final String WRITTEN_MSG = "Frame %d: written to %s in %.1f ms";
+    public static final String SEQUENCE_MSG = "Rendered %d frames in %.1f s (%.1f ms/frame)";
+    public static final String OUTPUT_DIR_ERR_MSG = "Error: The output directory %s could not be created";
+    public static final String WRITE_ERR_MSG = "Error: Frame %d could not be written to %s: %s";
+
+    private final DataSetRegistry.Handle dataSetHandle;
+    private final DataSet dataSet;
+    private final Volume volume;
+    private final Camera camera;
+    private final VolumeRenderer volumeRenderer;
+    private RenderQuality quality = RenderQuality.FULL;
+    private int framesInFlight = FramePipeline.DEFAULT_FRAMES_IN_FLIGHT;
+
+    /**
+     * Loads the dataset of the config and sets up a renderer for it
+     * @param config the dataset and the colour mapping to render
+     */
+    public BatchRenderer(IConfig config) {
+        this(config, DataSetRegistry.getShared().acquire(
+                config.getDatasetPath(),
+                config.getDatasetSize(),
+                config.getDatasetHeight(),
+                config.getDatasetWidth()
+        ));
+    }
+
+    private BatchRenderer(IConfig config, DataSetRegistry.Handle dataSetHandle) {
+        this(config, dataSetHandle, dataSetHandle.getDataSet(), dataSetHandle.getVolume());
+        DataSet dataSet = dataSetHandle.getDataSet();
+        this.volumeRenderer.setGradientField(dataSet::getGradientField);
+        this.volumeRenderer.setMacroCellGrid(dataSet.getMacroCellGrid());
+        this.volumeRenderer.setMinMaxOctree(dataSet.getMinMaxOctree());
+        this.volumeRenderer.setValueRange(dataSet.getMinVolValue(), dataSet.getMaxVolValue());
+        this.volumeRenderer.setOpacityLUT(dataSet.getOpacityLUT());
+    }
+
+    /**
+     * Sets up a renderer for a bricked volume, whose bricks are paged in as the rays reach them
+     * rather than the whole volume being loaded. Its macro cells are built in one pass over the bricks,
+     * so the rays neither sample nor page in the bricks the colour mapping leaves empty
+     * @param volume the bricked volume to render
+     * @param config the colour mapping to render with and the dimensions to place the camera by
+     */
+    public BatchRenderer(BrickedVolume volume, IConfig config) {
+        this(config, null, null, volume);
+        MacroCellGrid macroCellGrid = MacroCellGrid.build(volume);
+        this.volumeRenderer.setMacroCellGrid(macroCellGrid);
+        this.volumeRenderer.setMinMaxOctree(MinMaxOctree.build(macroCellGrid));
+        this.volumeRenderer.setValueRange(volume.getMinValue(), volume.getMaxValue());
+        this.volumeRenderer.setOpacityLUT(DataSet.createOpacityLUT(volume.getMaxGradientMagnitude()));
+    }
+
+    private BatchRenderer(IConfig config, DataSetRegistry.Handle dataSetHandle, DataSet dataSet, Volume volume) {
+        this.dataSetHandle = dataSetHandle;
+        this.dataSet = dataSet;
+        this.volume = volume;
+        this.camera = new Camera(config);
+        this.volumeRenderer = config.getHuToColorMap() == null
+                ? new VolumeRenderer(camera)
+                : new VolumeRenderer(camera, config.getHuToColorMap());
+    }
+
+    /**
+     * Renders a frame per orientation and writes them to the output directory,
+     * named by their index in the sequence
+     * @param orientations where to place the camera for every frame
+     * @param outputDir    the directory to write the frames to, created if missing
+     * @return the files written, in the order of the orientations
+     */
+    public List<File> renderSequence(List<CameraOrientation> orientations, File outputDir) {
+        List<File> files = new ArrayList<>();
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.out.println(String.format(OUTPUT_DIR_ERR_MSG, outputDir));
+            return files;
+        }
+
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        List<Future<?>> writes = new ArrayList<>();
+        long start = System.nanoTime();
+        FramePipeline pipeline = new FramePipeline(volumeRenderer, volume, framesInFlight);
+        pipeline.setQuality(quality);
+        pipeline.render(orientations, (index, frameBuffer, samplesTaken, nanos) -> {
+            System.out.println(String.format(FRAME_MSG, index, orientations.get(index), nanos / 1e6));
+            File file = new File(outputDir, String.format(FRAME_FILE_NAME, index));
+            writes.add(writer.submit(() -> writeFrame(index, frameBuffer, file)));
+            files.add(file);
+        });
+        try {
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } finally {
+            writer.shutdown();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(SEQUENCE_MSG, orientations.size(), seconds,
+                seconds * 1000 / Math.max(1, orientations.size())));
+        if (volume instanceof BrickedVolume) {
+            System.out.println(volume);
+        }
+        return files;
+    }
+
+    /**
+     * Encodes the <code>IntArgbPre</code> pixels of a frame as a PNG file
+     */
+    private static void writeFrame(int frame, int[] frameBuffer, File file) {
+        long start = System.nanoTime();
+        BufferedImage image = toBufferedImage(frameBuffer);
+        try {
+            ImageIO.write(image, "png", file);
+            System.out.println(String.format(WRITTEN_MSG, frame, file, (System.nanoTime() - start) / 1e6));
+        } catch (IOException e) {
+            System.out.println(String.format(WRITE_ERR_MSG, frame, file, e.getMessage()));
+        }
+    }
+
+    /**
+     * Wraps a copy of the framebuffer in an AWT image with the same premultiplied pixel layout
+     * @param frameBuffer the <code>IntArgbPre</code> pixels, row by row
+     * @return the image
+     */
+    public static BufferedImage toBufferedImage(int[] frameBuffer) {
+        BufferedImage image = new BufferedImage(Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT,
+                BufferedImage.TYPE_INT_ARGB_PRE);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(frameBuffer, 0, pixels, 0, pixels.length);
+        return image;
+    }
+
+    /**
+     * Sets how coarsely the frames are rendered, e.g. for thumbnails
+     * @param quality the quality of the next frames
+     */
+    public void setQuality(RenderQuality quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * Sets how many frames are rendered at once, see {@link FramePipeline}
+     * @param framesInFlight the number of frames, 1 to render them one after another
+     */
+    public void setFramesInFlight(int framesInFlight) {
+        this.framesInFlight = framesInFlight;
+    }
+
+    public VolumeRenderer getVolumeRenderer() {
+        return volumeRenderer;
+    }
+
+    /**
+     * Returns the dataset loaded from the config, or null when a bricked volume is rendered
+     */
+    public DataSet getDataSet() {
+        return dataSet;
+    }
+
+    public Volume getVolume() {
+        return volume;
+    }
+
+    /**
+     * Gives up the shared dataset; the bricked volume, if that is what is rendered, is left to its owner
+     */
+    @Override
+    public void close() {
+        if (dataSetHandle != null) {
+            dataSetHandle.close();
+        }
+    }
+}
@@ -32,12 +32,36 @@ public class Camera {
     public int viewPortDatasetCentreDistanceMultiplier = DEFAULT_VIEWPORT_DATASET_CENTRE_DISTANCE_MULTIPLIER;
 
     private final IConfig config;
+    /**
+     * The snapshot of the camera after its last move, replaced whole so the renderers never see a move half done
+     */
+    private volatile CameraState state;
 
     public Camera(IConfig config) {
         this.config = config;
         initCamera();
     }
 
+    /**
+     * Creates a copy of the camera at its current position, so either can be moved without affecting the other
+     * @param camera the camera to copy
+     */
+    public Camera(Camera camera) {
+        this.config = camera.config;
+        this.viewPortCentre = new Vector3D(camera.viewPortCentre);
+        this.viewPortCorner0 = new Vector3D(camera.viewPortCorner0);
+        this.viewPortCorner1 = new Vector3D(camera.viewPortCorner1);
+        this.viewPortCorner2 = new Vector3D(camera.viewPortCorner2);
+        this.viewPortCorner3 = new Vector3D(camera.viewPortCorner3);
+        this.eye = new Vector3D(camera.eye);
+        this.viewPortNormal = new Vector3D(camera.viewPortNormal);
+        this.light = new Vector3D(camera.light);
+        this.circleRadius = camera.circleRadius;
+        this.viewPortAngle = camera.viewPortAngle;
+        this.viewPortDatasetCentreDistanceMultiplier = camera.viewPortDatasetCentreDistanceMultiplier;
+        publishState();
+    }
+
     public void initCamera() {
         initViewPortCentre();
         initViewPortNormal();
@@ -45,7 +69,7 @@ public class Camera {
         initLight();
         initCircleRadius();
         initEye();
-
+        publishState();
     }
 
     private void initViewPortCentre() {
@@ -89,6 +113,7 @@ public class Camera {
                 newLightLocation.getY(),
                 newLightLocation.getZ()
         );
+        publishState();
     }
 
     /**
@@ -114,6 +139,7 @@ public class Camera {
         //lastly, we can move the camera lense to position it along its dataset centre <> viewport centre axis,
         //behind the viewport
         updateEye();
+        publishState();
     }
 
     public void updateViewPort(int newDistanceMultiplier) {
@@ -127,6 +153,7 @@ public class Camera {
         //lastly, we can move the camera lense to position it along its dataset centre <> viewport centre axis,
         //behind the viewport
         updateEye();
+        publishState();
     }
 
     public void moveViewPortByAngleDegrees(double degrees) {
@@ -140,7 +167,7 @@ public class Camera {
         //lastly, we can move the camera lense to position it along its dataset centre <> viewport centre axis,
         //behind the viewport
         updateEye();
-
+        publishState();
     }
 
 
@@ -214,6 +241,18 @@ public class Camera {
         return light;
     }
 
+    /**
+     * Returns the snapshot of the camera after its last move, for a frame to render from
+     * @return the snapshot
+     */
+    public CameraState getState() {
+        return state;
+    }
+
+    private void publishState() {
+        state = CameraState.capture(this);
+    }
+
     public Vector3D getViewPortNormal() {
         return viewPortNormal;
     }
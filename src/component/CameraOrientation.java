@@ -0,0 +1,76 @@
+package component;
+
+import model.Quaternion;
+import model.Vector3D;
+
+/**
+ * This class represents where to place the camera for a frame: either an angle around the vertical axis,
+ * as {@link Camera#moveViewPortByAngleDegrees(double)} takes, or a rotator, as {@link Camera#moveViewPortByRotator(Quaternion)} takes.
+ * Both are applied to a freshly initialised camera, so an orientation does not depend on the frames before it
+ *
+ * @author Kasper Krawczyk
+ */
+public final class CameraOrientation {
+
+    public static final String PARSE_ERR_MSG = "Expected an angle in degrees or a quaternion as w,x,y,z, got %s";
+
+    private final double degrees;
+    private final Quaternion rotator;
+
+    private CameraOrientation(double degrees, Quaternion rotator) {
+        this.degrees = degrees;
+        this.rotator = rotator;
+    }
+
+    public static CameraOrientation ofAngleDegrees(double degrees) {
+        return new CameraOrientation(degrees, null);
+    }
+
+    public static CameraOrientation ofRotator(double w, double x, double y, double z) {
+        return new CameraOrientation(0, Quaternion.makeExactQuaternionRadians(w, new Vector3D(x, y, z)));
+    }
+
+    /**
+     * Parses an orientation from the command line
+     * @param text an angle in degrees, e.g. <code>30</code>, or the components of a quaternion, e.g. <code>1,0,0.5,0</code>
+     * @return the orientation
+     * @throws IllegalArgumentException if the text is neither
+     */
+    public static CameraOrientation parse(String text) {
+        String[] parts = text.split(",");
+        try {
+            if (parts.length == 1) {
+                return ofAngleDegrees(Double.parseDouble(parts[0]));
+            }
+            if (parts.length == 4) {
+                return ofRotator(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                        Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+            }
+        } catch (NumberFormatException ignored) {
+            //reported below
+        }
+        throw new IllegalArgumentException(String.format(PARSE_ERR_MSG, text));
+    }
+
+    /**
+     * Resets the camera to its initial position, then moves it to this orientation
+     * @param camera the camera to move
+     */
+    public void applyTo(Camera camera) {
+        camera.initCamera();
+        if (rotator != null) {
+            camera.moveViewPortByRotator(rotator);
+        } else {
+            camera.moveViewPortByAngleDegrees(degrees);
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (rotator == null) {
+            return String.format("%.1f deg", degrees);
+        }
+        return String.format("q(%.3f, %.3f, %.3f, %.3f)", rotator.getW(),
+                rotator.getVector().getX(), rotator.getVector().getY(), rotator.getVector().getZ());
+    }
+}
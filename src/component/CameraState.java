@@ -0,0 +1,136 @@
+package component;
+
+import model.Vector3D;
+
+/**
+ * This class represents an immutable snapshot of a {@link Camera}, taken when a frame starts.
+ * It holds what the rays of a frame need: the eye, the first pixel of the view plane,
+ * the offsets between neighbouring pixels along a row and down a column, and the light.
+ * A frame reads only its snapshot, so the camera can be moved while the frame renders
+ * without the frame mixing the old and the new position
+ *
+ * @author Kasper Krawczyk
+ */
+public final class CameraState {
+
+    private final double eyeX;
+    private final double eyeY;
+    private final double eyeZ;
+    private final double cornerX;
+    private final double cornerY;
+    private final double cornerZ;
+    private final double stepXX;
+    private final double stepXY;
+    private final double stepXZ;
+    private final double stepYX;
+    private final double stepYY;
+    private final double stepYZ;
+    private final double lightX;
+    private final double lightY;
+    private final double lightZ;
+
+    private CameraState(Vector3D eye, Vector3D corner, Vector3D stepX, Vector3D stepY, Vector3D light) {
+        this.eyeX = eye.getX();
+        this.eyeY = eye.getY();
+        this.eyeZ = eye.getZ();
+        this.cornerX = corner.getX();
+        this.cornerY = corner.getY();
+        this.cornerZ = corner.getZ();
+        this.stepXX = stepX.getX();
+        this.stepXY = stepX.getY();
+        this.stepXZ = stepX.getZ();
+        this.stepYX = stepY.getX();
+        this.stepYY = stepY.getY();
+        this.stepYZ = stepY.getZ();
+        this.lightX = light.getX();
+        this.lightY = light.getY();
+        this.lightZ = light.getZ();
+    }
+
+    /**
+     * Takes a snapshot of where the camera is, computing the pixel steps once for the whole frame
+     * @param camera the camera to snapshot, which should not be moved while this runs
+     * @return the snapshot
+     */
+    static CameraState capture(Camera camera) {
+        return new CameraState(camera.getEye(), camera.getViewPortCorner0(),
+                camera.getStepX(), camera.getStepY(), camera.getLight());
+    }
+
+    public Vector3D getEye() {
+        return new Vector3D(eyeX, eyeY, eyeZ);
+    }
+
+    public Vector3D getLight() {
+        return new Vector3D(lightX, lightY, lightZ);
+    }
+
+    public double getEyeX() {
+        return eyeX;
+    }
+
+    public double getEyeY() {
+        return eyeY;
+    }
+
+    public double getEyeZ() {
+        return eyeZ;
+    }
+
+    /**
+     * Returns x of the first pixel of the view plane, in its top-left corner
+     */
+    public double getCornerX() {
+        return cornerX;
+    }
+
+    public double getCornerY() {
+        return cornerY;
+    }
+
+    public double getCornerZ() {
+        return cornerZ;
+    }
+
+    /**
+     * Returns x of the offset from a pixel to the next one on the same row
+     */
+    public double getStepXX() {
+        return stepXX;
+    }
+
+    public double getStepXY() {
+        return stepXY;
+    }
+
+    public double getStepXZ() {
+        return stepXZ;
+    }
+
+    /**
+     * Returns x of the offset from a pixel to the one below it on the next row
+     */
+    public double getStepYX() {
+        return stepYX;
+    }
+
+    public double getStepYY() {
+        return stepYY;
+    }
+
+    public double getStepYZ() {
+        return stepYZ;
+    }
+
+    public double getLightX() {
+        return lightX;
+    }
+
+    public double getLightY() {
+        return lightY;
+    }
+
+    public double getLightZ() {
+        return lightZ;
+    }
+}
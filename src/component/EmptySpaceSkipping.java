@@ -0,0 +1,23 @@
+package component;
+
+/**
+ * The ways the ray caster can avoid sampling the parts of the volume
+ * that the transfer function leaves fully transparent
+ *
+ * @author Kasper Krawczyk
+ */
+public enum EmptySpaceSkipping {
+    /**
+     * Every step of every ray is sampled
+     */
+    NONE,
+    /**
+     * Every step looks its macro cell up and skips the sample if the cell is empty
+     */
+    MACRO_CELLS,
+    /**
+     * Every ray is first clipped to the occupied leaves of the min/max octree,
+     * then the steps within them are checked against the macro cells
+     */
+    OCTREE
+}
@@ -0,0 +1,162 @@
+package component;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the most recently used full-quality frames, so returning to a view seen before,
+ * such as one of the standard angles or the reset orientation, copies the frame instead of rendering it again.
+ * Frames are keyed by the camera snapshot, light included, quantised to {@link #POSITION_QUANTUM},
+ * and by whatever else decides the pixels: the transfer function version, the volume and the renderer settings.
+ * The least recently used frames are evicted once the frames held take up more than the configured number of bytes
+ *
+ * @author Kasper Krawczyk
+ */
+public class FrameCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    /**
+     * The grid the camera coordinates are snapped to before they are compared, in world units
+     */
+    public static final double POSITION_QUANTUM = 1e-4;
+    public static final String STATS_MSG = "Frame cache: %d frames, %.1f MB, %d hits, %d misses";
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, int[]> frames = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes how many bytes of frames to hold at most
+     */
+    public FrameCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public FrameCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Copies the frame cached under the key into the framebuffer
+     * @param key         the key of the frame
+     * @param frameBuffer receives the frame
+     * @return true if the frame was cached, false if the framebuffer was left untouched
+     */
+    public synchronized boolean get(Key key, int[] frameBuffer) {
+        int[] frame = frames.get(key);
+        if (frame == null || frame.length != frameBuffer.length) {
+            misses++;
+            return false;
+        }
+        hits++;
+        System.arraycopy(frame, 0, frameBuffer, 0, frame.length);
+        return true;
+    }
+
+    /**
+     * Caches a copy of the frame, evicting the least recently used ones until it fits
+     * @param key         the key of the frame
+     * @param frameBuffer the frame to cache
+     */
+    public synchronized void put(Key key, int[] frameBuffer) {
+        long frameBytes = (long) frameBuffer.length * Integer.BYTES;
+        if (frameBytes > maxBytes) {
+            return;
+        }
+        int[] replaced = frames.put(key, frameBuffer.clone());
+        if (replaced != null) {
+            bytes -= (long) replaced.length * Integer.BYTES;
+        }
+        bytes += frameBytes;
+        Iterator<Map.Entry<Key, int[]>> eldest = frames.entrySet().iterator();
+        while (bytes > maxBytes) {
+            bytes -= (long) eldest.next().getValue().length * Integer.BYTES;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every frame, e.g. once the frames held can no longer be asked for
+     */
+    public synchronized void clear() {
+        frames.clear();
+        bytes = 0;
+    }
+
+    public synchronized int getNumOfFrames() {
+        return frames.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(STATS_MSG, frames.size(), bytes / (1024.0 * 1024.0), hits, misses);
+    }
+
+    /**
+     * The identity of a frame: the quantised camera snapshot followed by the values identifying
+     * the volume, the transfer function and the settings it was rendered with
+     */
+    public static final class Key {
+        private final long[] values;
+        private final int hash;
+
+        /**
+         * @param cameraState the camera the frame is rendered from
+         * @param identity    everything else that decides the pixels of the frame
+         */
+        public Key(CameraState cameraState, long... identity) {
+            values = Arrays.copyOf(identity, identity.length + 15);
+            int i = identity.length;
+            values[i++] = quantise(cameraState.getEyeX());
+            values[i++] = quantise(cameraState.getEyeY());
+            values[i++] = quantise(cameraState.getEyeZ());
+            values[i++] = quantise(cameraState.getCornerX());
+            values[i++] = quantise(cameraState.getCornerY());
+            values[i++] = quantise(cameraState.getCornerZ());
+            values[i++] = quantise(cameraState.getStepXX());
+            values[i++] = quantise(cameraState.getStepXY());
+            values[i++] = quantise(cameraState.getStepXZ());
+            values[i++] = quantise(cameraState.getStepYX());
+            values[i++] = quantise(cameraState.getStepYY());
+            values[i++] = quantise(cameraState.getStepYZ());
+            values[i++] = quantise(cameraState.getLightX());
+            values[i++] = quantise(cameraState.getLightY());
+            values[i] = quantise(cameraState.getLightZ());
+            hash = Arrays.hashCode(values);
+        }
+
+        private static long quantise(double value) {
+            return Math.round(value / POSITION_QUANTUM);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && hash == ((Key) other).hash && Arrays.equals(values, ((Key) other).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
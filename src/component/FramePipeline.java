@@ -0,0 +1,109 @@
+package component;
+
+import model.Volume;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class renders a sequence of frames with several of them in flight at once.
+ * Every frame gets its own copy of the camera, moved to its orientation and snapshotted, and its own framebuffer,
+ * and its tiles are submitted to the render pool without waiting for the frames before it,
+ * so the workers left idle by the last tiles of a frame pick up the first tiles of the next.
+ * Finished frames are handed on in the order of the sequence
+ *
+ * @author Kasper Krawczyk
+ */
+public class FramePipeline {
+
+    public static final int DEFAULT_FRAMES_IN_FLIGHT = 3;
+    public static final String FRAMES_IN_FLIGHT_ERR_MSG = "At least one frame has to be in flight";
+
+    private final VolumeRenderer volumeRenderer;
+    private final Volume vol;
+    private final int framesInFlight;
+    private RenderQuality quality = RenderQuality.FULL;
+
+    /**
+     * @param volumeRenderer the renderer to render with, its camera giving the starting point of every frame
+     * @param vol            the volume to render, in memory or bricked
+     * @param framesInFlight how many frames may be rendering at once, bounding the framebuffers held
+     */
+    public FramePipeline(VolumeRenderer volumeRenderer, Volume vol, int framesInFlight) {
+        if (framesInFlight < 1) {
+            throw new IllegalArgumentException(FRAMES_IN_FLIGHT_ERR_MSG);
+        }
+        this.volumeRenderer = volumeRenderer;
+        this.vol = vol;
+        this.framesInFlight = framesInFlight;
+    }
+
+    public FramePipeline(VolumeRenderer volumeRenderer, Volume vol) {
+        this(volumeRenderer, vol, DEFAULT_FRAMES_IN_FLIGHT);
+    }
+
+    /**
+     * Renders a frame per orientation, blocking until the last one has been handed on.
+     * Timing the sequence is left to the caller
+     * @param orientations where to place the camera for every frame
+     * @param consumer     receives every finished frame, in order, on the calling thread
+     */
+    public void render(List<CameraOrientation> orientations, FrameConsumer consumer) {
+        ArrayDeque<Frame> inFlight = new ArrayDeque<>();
+        for (int index = 0; index < orientations.size(); index++) {
+            if (inFlight.size() == framesInFlight) {
+                finish(inFlight.poll(), consumer);
+            }
+            Camera camera = new Camera(volumeRenderer.getCamera());
+            orientations.get(index).applyTo(camera);
+            inFlight.add(new Frame(index, camera.getState()));
+        }
+        while (!inFlight.isEmpty()) {
+            finish(inFlight.poll(), consumer);
+        }
+    }
+
+    private void finish(Frame frame, FrameConsumer consumer) {
+        frame.task.join();
+        consumer.accept(frame.index, frame.frameBuffer, frame.samplesTaken.sum(), frame.task.getRenderNanos());
+    }
+
+    /**
+     * Sets how coarsely the frames are rendered
+     * @param quality the quality of the next frames
+     */
+    public void setQuality(RenderQuality quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * Receives the frames of a sequence as they finish
+     */
+    public interface FrameConsumer {
+
+        /**
+         * @param index        the index of the frame in the sequence
+         * @param frameBuffer  the <code>IntArgbPre</code> pixels of the frame, row by row, owned by the consumer
+         * @param samplesTaken the number of samples taken in the frame
+         * @param nanos        the time from the first tile of the frame starting to its last tile finishing,
+         *                     not counting the time it was queued behind the frames before it
+         */
+        void accept(int index, int[] frameBuffer, long samplesTaken, long nanos);
+    }
+
+    /**
+     * A frame in flight
+     */
+    private final class Frame {
+        private final int index;
+        private final int[] frameBuffer = new int[Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+        private final LongAdder samplesTaken = new LongAdder();
+        private final RotatedRayCasterTask task;
+
+        private Frame(int index, CameraState cameraState) {
+            this.index = index;
+            this.task = volumeRenderer.submitFrame(vol, cameraState, quality, frameBuffer, () -> false, samplesTaken);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package component;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import mathutil.Gradients;
+import model.AABB;
+import model.GradientField;
+import model.Vector3D;
+import model.VolumeBuffer;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Renders tiles like {@link RotatedRayCasterTask}, but casts the rays of a row in packets,
+ * one ray per lane of the widest double vector the CPU has: 4 with AVX2, 8 with AVX-512.
+ * The slab tests against the boxes, the tri-linear interpolation, the transfer function and opacity look-ups,
+ * the shading and the front-to-back compositing run on whole packets, with a mask of the rays still marching,
+ * so a packet keeps going until its last ray has left the volume or become opaque.
+ * The eight voxels of every sample and its gradient are still fetched ray by ray,
+ * as the Vector API does not gather from <code>short</code> arrays in hardware.
+ * Needs the <code>jdk.incubator.vector</code> module; see {@link RayCastingEngine#PACKET}
+ *
+ * @author Kasper Krawczyk
+ */
+public class PacketRayCasterTask extends RotatedRayCasterTask {
+
+    private static final long serialVersionUID = 1L;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * As many float lanes as there are double lanes, for the parts done in single precision as in the scalar path
+     */
+    private static final VectorSpecies<Float> FLOATS =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    public static final int LANES = DOUBLES.length();
+
+    private static final double[] LANE_INDICES = new double[LANES];
+
+    static {
+        for (int lane = 0; lane < LANES; lane++) {
+            LANE_INDICES[lane] = lane;
+        }
+    }
+
+    /**
+     * The state of the rays of the packet being cast, one element per lane, allocated once per leaf task
+     */
+    private double[] entry;
+    private double[] exit;
+    private double[] visibleEntry;
+    private double[] visibleExit;
+    private double[] posX;
+    private double[] posY;
+    private double[] posZ;
+    private double[] stepX;
+    private double[] stepY;
+    private double[] stepZ;
+    private double[] numOfSamples;
+    private boolean[] marching;
+    private boolean[] sampling;
+    private float[][] corners;
+    private float[] primX;
+    private float[] primY;
+    private float[] primZ;
+    private float[] interpolated;
+    private double[] gradientX;
+    private double[] gradientY;
+    private double[] gradientZ;
+    private double[] gradientMagnitude;
+    private final float[] gradient = new float[3];
+    private int[] colourIndex;
+    private int[] opacityIndex;
+    private double[] red;
+    private double[] green;
+    private double[] blue;
+    private double[] opacity;
+    private int[] argb;
+    /**
+     * The volume, which the packets read as a whole from memory
+     */
+    private final VolumeBuffer buffer;
+
+    public PacketRayCasterTask(int[] frameBuffer, AABB aabb, AABB visibleAabb, CameraState cameraState,
+                               VolumeRenderer volumeRenderer, VolumeBuffer vol, RenderQuality quality,
+                               BooleanSupplier cancelled, LongAdder samplesTaken, int startTile, int endTile) {
+        super(frameBuffer, aabb, visibleAabb, cameraState, volumeRenderer, vol, quality, cancelled, samplesTaken,
+                startTile, endTile);
+        this.buffer = vol;
+    }
+
+    @Override
+    protected RotatedRayCasterTask subTask(int startTile, int endTile) {
+        return new PacketRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, volumeRenderer, buffer, quality,
+                cancelled, samplesTaken, startTile, endTile);
+    }
+
+    /**
+     * Renders one tile like the scalar task, casting the rays of every row
+     * <code>LANES</code> blocks of pixels at a time
+     */
+    @Override
+    protected void renderTile(int startX, int startY, int endX, int endY, RayScratch scratch) {
+        if (argb == null) {
+            allocateLanes();
+        }
+        int pixelStep = quality.getPixelStep();
+        CameraState state = cameraState;
+        Vector3D eye = state.getEye();
+        for (int y = startY; y < endY; y += pixelStep) {
+            //from the eye to the first pixel of the row
+            double rowX = state.getCornerX() + state.getStepYX() * y + state.getStepXX() * startX - state.getEyeX();
+            double rowY = state.getCornerY() + state.getStepYY() * y + state.getStepXY() * startX - state.getEyeY();
+            double rowZ = state.getCornerZ() + state.getStepYZ() * y + state.getStepXZ() * startX - state.getEyeZ();
+
+            for (int x = startX; x < endX; x += pixelStep * LANES) {
+                int lanes = Math.min(LANES, (endX - x + pixelStep - 1) / pixelStep);
+                DoubleVector column = DoubleVector.fromArray(DOUBLES, LANE_INDICES, 0)
+                        .mul(pixelStep)
+                        .add(x - startX);
+                DoubleVector directionX = column.mul(state.getStepXX()).add(rowX);
+                DoubleVector directionY = column.mul(state.getStepXY()).add(rowY);
+                DoubleVector directionZ = column.mul(state.getStepXZ()).add(rowZ);
+                DoubleVector magnitude = directionX.mul(directionX)
+                        .add(directionY.mul(directionY))
+                        .add(directionZ.mul(directionZ))
+                        .sqrt();
+
+                castPacket(eye, directionX.div(magnitude), directionY.div(magnitude), directionZ.div(magnitude),
+                        DOUBLES.indexInRange(0, lanes), scratch);
+                for (int lane = 0; lane < lanes; lane++) {
+                    int laneX = x + lane * pixelStep;
+                    fillBlock(laneX, y, Math.min(laneX + pixelStep, endX), Math.min(y + pixelStep, endY),
+                            argb[lane]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clips the rays of the packet to the volume and its visible box like the scalar task,
+     * marches them together and leaves their colours in <code>argb</code>
+     */
+    private void castPacket(Vector3D eye, DoubleVector directionX, DoubleVector directionY, DoubleVector directionZ,
+                            VectorMask<Double> rays, RayScratch scratch) {
+        double sampleStep = quality.getSampleStep();
+        VectorMask<Double> hits = intersect(aabb, eye, directionX, directionY, directionZ, rays, entry, exit);
+        boolean[] hitVolume = hits.toArray();
+        if (visibleAabb != aabb) {
+            hits = visibleAabb == null
+                    ? DOUBLES.maskAll(false)
+                    : intersect(visibleAabb, eye, directionX, directionY, directionZ, hits, visibleEntry, visibleExit);
+        }
+
+        //the entry and exit points in volume coordinates, set up as the scalar march does
+        int height = vol.getHeight();
+        for (int lane = 0; lane < LANES; lane++) {
+            marching[lane] = hits.laneIsSet(lane);
+            if (!marching[lane]) {
+                argb[lane] = hitVolume[lane] ? TRANSPARENT_ARGB : BACKGROUND_ARGB;
+                continue;
+            }
+            double laneEntry = entry[lane];
+            double laneExit = exit[lane];
+            if (visibleAabb != aabb) {
+                laneEntry += Math.max(0, Math.floor((visibleEntry[lane] - laneEntry) / sampleStep)) * sampleStep;
+                laneExit = visibleExit[lane];
+            }
+            double dirX = directionX.lane(lane);
+            double dirY = directionY.lane(lane);
+            double dirZ = directionZ.lane(lane);
+            double x0 = eye.getZ() + dirZ * laneEntry;
+            double y0 = height - (eye.getY() + dirY * laneEntry);
+            double z0 = eye.getX() + dirX * laneEntry;
+            double deltaX = eye.getZ() + dirZ * laneExit - x0;
+            double deltaY = height - (eye.getY() + dirY * laneExit) - y0;
+            double deltaZ = eye.getX() + dirX * laneExit - z0;
+            double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY + deltaZ * deltaZ);
+            posX[lane] = x0;
+            posY[lane] = y0;
+            posZ[lane] = z0;
+            stepX[lane] = deltaX / distance * sampleStep;
+            stepY[lane] = deltaY / distance * sampleStep;
+            stepZ[lane] = deltaZ / distance * sampleStep;
+            numOfSamples[lane] = (int) (distance / sampleStep);
+        }
+        if (!hits.anyTrue()) {
+            return;
+        }
+
+        marchPacket(hits, sampleStep, scratch);
+        for (int lane = 0; lane < LANES; lane++) {
+            if (marching[lane]) {
+                argb[lane] = VolumeRenderer.toArgbPre(red[lane], green[lane], blue[lane], opacity[lane]);
+            }
+        }
+    }
+
+    /**
+     * Intersects the rays of the packet with the box like {@link AABB#getIntersectionDistances},
+     * lane by lane in the same order of operations
+     * @return the rays that hit the box, their entry and exit distances written to <code>entries</code>
+     * and <code>exits</code>
+     */
+    private static VectorMask<Double> intersect(AABB box, Vector3D origin,
+                                                DoubleVector directionX, DoubleVector directionY,
+                                                DoubleVector directionZ, VectorMask<Double> rays,
+                                                double[] entries, double[] exits) {
+        DoubleVector invDirX = DoubleVector.broadcast(DOUBLES, 1).div(directionX);
+        DoubleVector invDirY = DoubleVector.broadcast(DOUBLES, 1).div(directionY);
+        DoubleVector invDirZ = DoubleVector.broadcast(DOUBLES, 1).div(directionZ);
+        Vector3D min = box.getMin();
+        Vector3D max = box.getMax();
+
+        VectorMask<Double> signDirX = invDirX.compare(VectorOperators.LT, 0);
+        DoubleVector tMin = slab(min.getX(), max.getX(), signDirX, origin.getX(), invDirX);
+        DoubleVector tMax = slab(max.getX(), min.getX(), signDirX, origin.getX(), invDirX);
+        VectorMask<Double> signDirY = invDirY.compare(VectorOperators.LT, 0);
+        DoubleVector tYMin = slab(min.getY(), max.getY(), signDirY, origin.getY(), invDirY);
+        DoubleVector tYMax = slab(max.getY(), min.getY(), signDirY, origin.getY(), invDirY);
+
+        rays = rays.andNot(tMin.compare(VectorOperators.GT, tYMax).or(tYMin.compare(VectorOperators.GT, tMax)));
+        tMin = tMin.blend(tYMin, tYMin.compare(VectorOperators.GT, tMin));
+        tMax = tMax.blend(tYMax, tYMax.compare(VectorOperators.LT, tMax));
+
+        VectorMask<Double> signDirZ = invDirZ.compare(VectorOperators.LT, 0);
+        DoubleVector tZMin = slab(min.getZ(), max.getZ(), signDirZ, origin.getZ(), invDirZ);
+        DoubleVector tZMax = slab(max.getZ(), min.getZ(), signDirZ, origin.getZ(), invDirZ);
+
+        rays = rays.andNot(tMin.compare(VectorOperators.GT, tZMax).or(tZMin.compare(VectorOperators.GT, tMax)));
+        tMin = tMin.blend(tZMin, tZMin.compare(VectorOperators.GT, tMin));
+        tMax = tMax.blend(tZMax, tZMax.compare(VectorOperators.LT, tMax));
+
+        rays = rays.and(tMin.compare(VectorOperators.LT, Float.MAX_VALUE))
+                .and(tMax.compare(VectorOperators.GT, 0));
+        roundToFloat(tMin).intoArray(entries, 0);
+        roundToFloat(tMax).intoArray(exits, 0);
+        return rays;
+    }
+
+    /**
+     * Returns the distances to the plane <code>near</code>, or <code>far</code> for the rays running backwards
+     */
+    private static DoubleVector slab(double near, double far, VectorMask<Double> backwards,
+                                     double origin, DoubleVector invDir) {
+        return DoubleVector.broadcast(DOUBLES, near)
+                .blend(far, backwards)
+                .sub(origin)
+                .mul(invDir);
+    }
+
+    /**
+     * Marches the rays set up in the lane arrays together, the way the scalar march does one ray
+     * @param rays the lanes holding a ray to march
+     */
+    private void marchPacket(VectorMask<Double> rays, double sampleStep, RayScratch scratch) {
+        VolumeRenderer.Classification classification = volumeRenderer.getClassification();
+        TransferFunction transferFunction = classification.transferFunction;
+        float[] rgba = transferFunction.getRgba();
+        boolean[] emptyCells = null;
+        //the octree's sample ranges are per ray, so the lanes skip with the macro cells in either mode
+        if (volumeRenderer.getEmptySpaceSkipping() != EmptySpaceSkipping.NONE
+                && classification.macroCellGrid != null && classification.macroCellGrid.covers(vol)) {
+            emptyCells = classification.emptyCells;
+        }
+        double[] opacityLUT = classification.opacityLUT;
+        double lightX = cameraState.getLightX();
+        double lightY = cameraState.getLightY();
+        double lightZ = cameraState.getLightZ();
+        double stopTransparency = 1 - volumeRenderer.getOpacityThreshold();
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
+
+        DoubleVector x = DoubleVector.fromArray(DOUBLES, posX, 0);
+        DoubleVector y = DoubleVector.fromArray(DOUBLES, posY, 0);
+        DoubleVector z = DoubleVector.fromArray(DOUBLES, posZ, 0);
+        DoubleVector dx = DoubleVector.fromArray(DOUBLES, stepX, 0);
+        DoubleVector dy = DoubleVector.fromArray(DOUBLES, stepY, 0);
+        DoubleVector dz = DoubleVector.fromArray(DOUBLES, stepZ, 0);
+        DoubleVector samples = DoubleVector.fromArray(DOUBLES, numOfSamples, 0);
+        DoubleVector rAcc = DoubleVector.zero(DOUBLES);
+        DoubleVector gAcc = DoubleVector.zero(DOUBLES);
+        DoubleVector bAcc = DoubleVector.zero(DOUBLES);
+        DoubleVector transparencyAcc = DoubleVector.broadcast(DOUBLES, 1);
+        long samplesTaken = 0;
+
+        for (int i = 0; ; i++) {
+            rays = rays.and(samples.compare(VectorOperators.GT, i));
+            if (!rays.anyTrue()) {
+                break;
+            }
+            //clip
+            x = x.max(0).min(depth - 1);
+            y = y.max(0).min(height - 1);
+            z = z.max(0).min(width - 1);
+            x.intoArray(posX, 0);
+            y.intoArray(posY, 0);
+            z.intoArray(posZ, 0);
+
+            int sampled = fetchSamples(rays, emptyCells, classification);
+            if (sampled > 0) {
+                samplesTaken += sampled;
+                VectorMask<Double> sample = VectorMask.fromArray(DOUBLES, sampling, 0);
+                VectorMask<Float> sampleFloats = sample.cast(FLOATS);
+
+                //the tri-linear interpolation, in single precision like Gradients.tlerp
+                FloatVector xq = FloatVector.fromArray(FLOATS, primX, 0);
+                FloatVector yq = FloatVector.fromArray(FLOATS, primY, 0);
+                FloatVector zq = FloatVector.fromArray(FLOATS, primZ, 0);
+                FloatVector close = lerp(
+                        lerp(corner(0), corner(1), xq),
+                        lerp(corner(2), corner(3), xq),
+                        yq);
+                FloatVector far = lerp(
+                        lerp(corner(4), corner(5), xq),
+                        lerp(corner(6), corner(7), xq),
+                        yq);
+                lerp(close, far, zq).intoArray(interpolated, 0);
+                for (int lane = 0; lane < LANES; lane++) {
+                    colourIndex[lane] = sampling[lane] ? transferFunction.offset((short) interpolated[lane]) : 0;
+                }
+
+                DoubleVector alpha = toDoubles(FloatVector.fromArray(
+                        FLOATS, rgba, 3, colourIndex, 0, sampleFloats));
+                DoubleVector sampleOpacity = DoubleVector.fromArray(DOUBLES, opacityLUT, 0, opacityIndex, 0, sample)
+                        .blend(0, alpha.compare(VectorOperators.EQ, 0));
+                if (sampleStep != 1) {
+                    sampleOpacity = sampleOpacity.neg().add(1)
+                            .lanewise(VectorOperators.POW, sampleStep)
+                            .neg().add(1);
+                }
+
+                //Lambertian reflection
+                DoubleVector gx = DoubleVector.fromArray(DOUBLES, gradientX, 0);
+                DoubleVector gy = DoubleVector.fromArray(DOUBLES, gradientY, 0);
+                DoubleVector gz = DoubleVector.fromArray(DOUBLES, gradientZ, 0);
+                DoubleVector gm = DoubleVector.fromArray(DOUBLES, gradientMagnitude, 0);
+                DoubleVector toLightX = DoubleVector.broadcast(DOUBLES, lightX).sub(x);
+                DoubleVector toLightY = DoubleVector.broadcast(DOUBLES, lightY).sub(y);
+                DoubleVector toLightZ = DoubleVector.broadcast(DOUBLES, lightZ).sub(z);
+                DoubleVector toLightMagnitude = toLightX.mul(toLightX)
+                        .add(toLightY.mul(toLightY))
+                        .add(toLightZ.mul(toLightZ))
+                        .sqrt();
+                DoubleVector cosTheta = gx.div(gm).mul(toLightX.div(toLightMagnitude))
+                        .add(gy.div(gm).mul(toLightY.div(toLightMagnitude)))
+                        .add(gz.div(gm).mul(toLightZ.div(toLightMagnitude)));
+                cosTheta = cosTheta.blend(0, cosTheta.compare(VectorOperators.GT, 0).not());
+                DoubleVector shadedRed = shade(rgba, 0, sampleFloats, cosTheta);
+                DoubleVector shadedGreen = shade(rgba, 1, sampleFloats, cosTheta);
+                DoubleVector shadedBlue = shade(rgba, 2, sampleFloats, cosTheta);
+                DoubleVector shadedOpacity = roundToFloat(sampleOpacity);
+
+                DoubleVector weight = transparencyAcc.mul(sampleOpacity);
+                rAcc = rAcc.add(weight.mul(shadedRed), sample);
+                gAcc = gAcc.add(weight.mul(shadedGreen), sample);
+                bAcc = bAcc.add(weight.mul(shadedBlue), sample);
+                transparencyAcc = transparencyAcc.mul(shadedOpacity.neg().add(1), sample);
+
+                //the rays that hit a fully opaque material or reached the opacity threshold stop marching
+                rays = rays.andNot(sample.and(sampleOpacity.compare(VectorOperators.EQ, 1)
+                        .or(transparencyAcc.compare(VectorOperators.LE, stopTransparency))));
+            }
+            x = x.add(dx);
+            y = y.add(dy);
+            z = z.add(dz);
+        }
+
+        rAcc.min(1).intoArray(red, 0);
+        gAcc.min(1).intoArray(green, 0);
+        bAcc.min(1).intoArray(blue, 0);
+        transparencyAcc.neg().add(1).intoArray(opacity, 0);
+        scratch.samplesTaken += samplesTaken;
+    }
+
+    /**
+     * Fetches, ray by ray, the eight voxels around every sample outside the empty macro cells,
+     * its interpolation weights and its gradient
+     * @return the number of rays that take a sample, flagged in <code>sampling</code>
+     */
+    private int fetchSamples(VectorMask<Double> rays, boolean[] emptyCells,
+                             VolumeRenderer.Classification classification) {
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
+        short[] data = buffer.getData();
+        boolean usePrecomputedGradients = volumeRenderer.isUsingPrecomputedGradients();
+        GradientField gradientField = volumeRenderer.getGradientField();
+        double[] opacityLUT = classification.opacityLUT;
+        int sampled = 0;
+        for (int lane = 0; lane < LANES; lane++) {
+            double x = posX[lane];
+            double y = posY[lane];
+            double z = posZ[lane];
+            sampling[lane] = rays.laneIsSet(lane) && (emptyCells == null
+                    || !emptyCells[classification.macroCellGrid.cellIndex((int) x, (int) y, (int) z)]);
+            if (!sampling[lane]) {
+                continue;
+            }
+            sampled++;
+
+            //the positions are clipped, so the lower corner is the truncation and the upper one is next to it
+            int depthIndex = (int) x;
+            int heightIndex = (int) y;
+            int widthIndex = (int) z;
+            primZ[lane] = (float) (x - depthIndex);
+            primY[lane] = (float) (y - heightIndex);
+            primX[lane] = (float) (z - widthIndex);
+            int close = buffer.index(depthIndex, heightIndex, widthIndex);
+            int far = close + (x > depthIndex ? buffer.getStrideZ() : 0);
+            int down = y > heightIndex ? buffer.getStrideY() : 0;
+            int right = z > widthIndex ? 1 : 0;
+            corners[0][lane] = data[close];
+            corners[1][lane] = data[close + right];
+            corners[2][lane] = data[close + down];
+            corners[3][lane] = data[close + down + right];
+            corners[4][lane] = data[far];
+            corners[5][lane] = data[far + right];
+            corners[6][lane] = data[far + down];
+            corners[7][lane] = data[far + down + right];
+
+            //the flipped gradient, as in the scalar march
+            if (usePrecomputedGradients) {
+                gradientField.sample(x, y, z, gradient);
+                gradientX[lane] = -gradient[0];
+                gradientY[lane] = -gradient[1];
+                gradientZ[lane] = -gradient[2];
+            } else {
+                gradientZ[lane] = -Gradients.getLinearGradient(close, depthIndex, depth, buffer.getStrideZ(), data,
+                        primZ[lane]);
+                gradientY[lane] = -Gradients.getLinearGradient(close, heightIndex, height, buffer.getStrideY(), data,
+                        primY[lane]);
+                gradientX[lane] = -Gradients.getLinearGradient(close, widthIndex, width, 1, data,
+                        primX[lane]);
+            }
+            gradientMagnitude[lane] = Math.sqrt(gradientX[lane] * gradientX[lane]
+                    + gradientY[lane] * gradientY[lane]
+                    + gradientZ[lane] * gradientZ[lane]);
+            opacityIndex[lane] = Math.min((int) gradientMagnitude[lane], opacityLUT.length - 1);
+        }
+        return sampled;
+    }
+
+    private FloatVector corner(int corner) {
+        return FloatVector.fromArray(FLOATS, corners[corner], 0);
+    }
+
+    private static FloatVector lerp(FloatVector val1, FloatVector val2, FloatVector quotient) {
+        return val1.add(val2.sub(val1).mul(quotient));
+    }
+
+    /**
+     * Looks a colour channel of the samples up and shades it, rounded to float as the shaded Color would be
+     */
+    private DoubleVector shade(float[] rgba, int channel, VectorMask<Float> sample, DoubleVector cosTheta) {
+        DoubleVector colour = toDoubles(FloatVector.fromArray(FLOATS, rgba, channel, colourIndex, 0, sample));
+        return roundToFloat(colour.mul(cosTheta).min(1));
+    }
+
+    private static DoubleVector toDoubles(FloatVector vector) {
+        return (DoubleVector) vector.convertShape(VectorOperators.F2D, DOUBLES, 0);
+    }
+
+    private static DoubleVector roundToFloat(DoubleVector vector) {
+        return toDoubles((FloatVector) vector.convertShape(VectorOperators.D2F, FLOATS, 0));
+    }
+
+    private void allocateLanes() {
+        entry = new double[LANES];
+        exit = new double[LANES];
+        visibleEntry = new double[LANES];
+        visibleExit = new double[LANES];
+        posX = new double[LANES];
+        posY = new double[LANES];
+        posZ = new double[LANES];
+        stepX = new double[LANES];
+        stepY = new double[LANES];
+        stepZ = new double[LANES];
+        numOfSamples = new double[LANES];
+        marching = new boolean[LANES];
+        sampling = new boolean[LANES];
+        corners = new float[8][LANES];
+        primX = new float[LANES];
+        primY = new float[LANES];
+        primZ = new float[LANES];
+        interpolated = new float[LANES];
+        gradientX = new double[LANES];
+        gradientY = new double[LANES];
+        gradientZ = new double[LANES];
+        gradientMagnitude = new double[LANES];
+        colourIndex = new int[LANES];
+        opacityIndex = new int[LANES];
+        red = new double[LANES];
+        green = new double[LANES];
+        blue = new double[LANES];
+        opacity = new double[LANES];
+        argb = new int[LANES];
+    }
+}
@@ -0,0 +1,30 @@
+package component;
+
+/**
+ * The ways the rays of a frame can be cast
+ *
+ * @author Kasper Krawczyk
+ */
+public enum RayCastingEngine {
+    /**
+     * One ray at a time, see {@link RotatedRayCasterTask}
+     */
+    SCALAR,
+    /**
+     * The rays of a row in packets, one ray per lane of the vector unit, see {@link PacketRayCasterTask}.
+     * Needs the <code>jdk.incubator.vector</code> module, added with <code>--add-modules jdk.incubator.vector</code>.
+     * Empty space is only skipped with the macro cells, {@link EmptySpaceSkipping#OCTREE} is treated as
+     * {@link EmptySpaceSkipping#MACRO_CELLS}
+     */
+    PACKET;
+
+    public static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /**
+     * Checks the engine can run on this JVM
+     * @return false for the packet engine if the Vector API module has not been added
+     */
+    public boolean isAvailable() {
+        return this != PACKET || ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+    }
+}
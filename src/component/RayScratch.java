@@ -0,0 +1,26 @@
+package component;
+
+import model.MinMaxOctree;
+
+/**
+ * This class holds the scratch space a worker reuses from ray to ray, so marching a ray allocates nothing,
+ * along with a count of the samples the worker has taken
+ *
+ * @author Kasper Krawczyk
+ */
+public final class RayScratch {
+
+    final float[] gradient = new float[3];
+    final double[] rgba = new double[4];
+    final double[] distances = new double[2];
+    final MinMaxOctree.SampleRanges sampleRanges = new MinMaxOctree.SampleRanges();
+    long samplesTaken;
+
+    /**
+     * Returns the number of samples classified and shaded so far, not counting the ones skipped as empty
+     * @return the number of samples
+     */
+    public long getSamplesTaken() {
+        return samplesTaken;
+    }
+}
@@ -0,0 +1,47 @@
+package component;
+
+/**
+ * This class represents how coarsely a frame is rendered: one ray is cast per
+ * <code>pixelStep</code> x <code>pixelStep</code> block of pixels and marched
+ * <code>sampleStep</code> voxels at a time, with the opacities corrected for the longer step.
+ * {@link #FULL} renders every pixel at unit steps, exactly as before
+ *
+ * @author Kasper Krawczyk
+ */
+public final class RenderQuality {
+
+    public static final String PIXEL_STEP_ERR_MSG = "The pixel step should be at least 1";
+    public static final String SAMPLE_STEP_ERR_MSG = "The sample step should be positive";
+    public static final RenderQuality FULL = new RenderQuality(1, 1);
+
+    private final int pixelStep;
+    private final double sampleStep;
+
+    public RenderQuality(int pixelStep, double sampleStep) {
+        if (pixelStep < 1) {
+            throw new IllegalArgumentException(PIXEL_STEP_ERR_MSG);
+        }
+        if (!(sampleStep > 0)) {
+            throw new IllegalArgumentException(SAMPLE_STEP_ERR_MSG);
+        }
+        this.pixelStep = pixelStep;
+        this.sampleStep = sampleStep;
+    }
+
+    public int getPixelStep() {
+        return pixelStep;
+    }
+
+    public double getSampleStep() {
+        return sampleStep;
+    }
+
+    public boolean isFull() {
+        return pixelStep == 1 && sampleStep == 1;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderQuality{pixelStep=" + pixelStep + ", sampleStep=" + sampleStep + "}";
+    }
+}
@@ -1,131 +1,198 @@
 package component;
 
-import component.Camera;
-import component.VolumeRenderer;
-import javafx.scene.paint.Color;
-import mathutil.Gradients;
 import model.AABB;
-import model.Ray;
 import model.Vector3D;
+import model.Volume;
 
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
-public class RotatedRayCasterTask implements Runnable {
+/**
+ * Renders a range of square tiles of the image, splitting the range in halves
+ * until a single tile is left, so idle workers can steal the tiles of busier ones
+ */
+public class RotatedRayCasterTask extends RecursiveAction {
 
-    protected final Color[][] image;
+    private static final long serialVersionUID = 1L;
+    public static final int TILE_SIZE = 32;
+    public static final int TILES_X = (Camera.VIEW_PLANE_WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+    public static final int TILES_Y = (Camera.VIEW_PLANE_HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+    public static final int NUM_OF_TILES = TILES_X * TILES_Y;
+
+    /**
+     * Premultiplied ARGB of an opaque white pixel, for the rays that miss the volume
+     */
+    public static final int BACKGROUND_ARGB = 0xffffffff;
+    /**
+     * Premultiplied ARGB of a fully transparent pixel, for the rays that cross the volume but no visible voxel
+     */
+    public static final int TRANSPARENT_ARGB = 0;
+
+    protected final int[] frameBuffer;
     protected final AABB aabb;
-    protected final Camera camera;
-    protected final CountDownLatch latch;
+    /**
+     * The part of <code>aabb</code> holding the visible voxels, which the rays are clipped to; null if there are none
+     */
+    protected final AABB visibleAabb;
+    /**
+     * Where the camera was when the frame started, so moving the camera mid-frame does not tear it
+     */
+    protected final CameraState cameraState;
     protected final VolumeRenderer volumeRenderer;
-    protected final short[][][] vol;
-    protected final int startIndex;
-    protected final int endIndex;
+    protected final Volume vol;
+    protected final RenderQuality quality;
+    protected final BooleanSupplier cancelled;
+    protected final LongAdder samplesTaken;
+    protected final int startTile;
+    protected final int endTile;
+    private long startedNanos;
+    private long finishedNanos;
     public static final AABB ORIGIN_AABB = new AABB(
             new Vector3D(10, 10, 10),
             new Vector3D(-10, -40, -10)
     );
 
-    public RotatedRayCasterTask(Color[][] image, AABB aabb, Camera camera,
-                                CountDownLatch latch, VolumeRenderer volumeRenderer,
-                                short[][][] vol, int startIndex, int endIndex) {
-        this.image = image;
+    public RotatedRayCasterTask(int[] frameBuffer, AABB aabb, AABB visibleAabb, CameraState cameraState,
+                                VolumeRenderer volumeRenderer, Volume vol, RenderQuality quality,
+                                BooleanSupplier cancelled, LongAdder samplesTaken, int startTile, int endTile) {
+        this.frameBuffer = frameBuffer;
         this.aabb = aabb;
-        this.camera = camera;
-        this.latch = latch;
+        this.visibleAabb = visibleAabb;
+        this.cameraState = cameraState;
         this.volumeRenderer = volumeRenderer;
         this.vol = vol;
-        this.startIndex = startIndex;
-        this.endIndex = endIndex;
+        this.quality = quality;
+        this.cancelled = cancelled;
+        this.samplesTaken = samplesTaken;
+        this.startTile = startTile;
+        this.endTile = endTile;
     }
 
     @Override
-    public void run() {
-        Vector3D passThroughPixel;
-        Ray ray;
-        for (int y = 0; y < Camera.VIEW_PLANE_HEIGHT; y++) {
-
-            for (int x = startIndex; x < endIndex; x++) {
-                passThroughPixel = getCurRayOrigin(x, y);
-                ray = getCurRay(camera.getEye(), passThroughPixel);
-
-                Vector3D[] intersectionPoints = translateToVolumeCoordinates(
-                        aabb.getIntersections(ray, 0, Float.MAX_VALUE));
-
-//                model.Vector3D[] origin = ORIGIN_AABB.getIntersections(ray, 0, Float.MAX_VALUE);
-
-                Color color;
-                if (intersectionPoints != null) {
-                    color = this.volumeRenderer.sampleCompositeShade(
-                            intersectionPoints[0],
-                            intersectionPoints[1],
-                            vol
-                    );
-                } else {
-                    color = Color.WHITE;
-                }
-                image[y][x] = color;
+    protected void compute() {
+        startedNanos = System.nanoTime();
+        if (endTile - startTile > 1) {
+            int mid = (startTile + endTile) >>> 1;
+            invokeAll(subTask(startTile, mid), subTask(mid, endTile));
+            finishedNanos = System.nanoTime();
+            return;
+        }
+        RayScratch scratch = new RayScratch();
+        for (int tile = startTile; tile < endTile; tile++) {
+            if (cancelled.getAsBoolean()) {
+                break;
             }
+            int startX = (tile % TILES_X) * TILE_SIZE;
+            int startY = (tile / TILES_X) * TILE_SIZE;
+            renderTile(startX, startY,
+                    Math.min(startX + TILE_SIZE, Camera.VIEW_PLANE_WIDTH),
+                    Math.min(startY + TILE_SIZE, Camera.VIEW_PLANE_HEIGHT),
+                    scratch);
         }
-        latch.countDown();
+        samplesTaken.add(scratch.getSamplesTaken());
+        finishedNanos = System.nanoTime();
     }
 
     /**
-     * Returns a point in 3D space from which to shoot a ray based on current pixel location.
-     * The point is bilineraly interpolated between the four corners of the view port, based on the offset quotients derived
-     * from the current pixel position (integer matrix coordinates) (x, y) and four 3D points expressed as vectors <x, y, z>
-     * (current 3D coordinates of the viewport corners)
-     * @param curX <code>int</code> x coordinate of the current pixel to find the colour for
-     * @param curY <code>int</code> y coordinate of the current pixel to find the colour for
-     * @return a <code>model.Vector3D</code> with the 3D coordinates from which to shoot a ray
+     * Returns the time from this task starting to run to it and its subtasks finishing,
+     * not counting the time it was queued behind other work; only meaningful once it is done
+     * @return the time in nanoseconds
      */
-    private Vector3D getCurRayOrigin(int curX, int curY) {
-        float quotientX = curX / (float) Camera.VIEW_PLANE_WIDTH;
-        float quotientY = curY / (float) Camera.VIEW_PLANE_HEIGHT;
-
-        return Gradients.blerp(
-                camera.getViewPortCorner0(),
-                camera.getViewPortCorner1(),
-                camera.getViewPortCorner2(),
-                camera.getViewPortCorner3(),
-                quotientX,
-                quotientX,
-                quotientY
-        );
+    public long getRenderNanos() {
+        return finishedNanos - startedNanos;
     }
 
-    private Ray getCurRay(Vector3D eye, Vector3D passThroughPixel) {
-        Vector3D direction = passThroughPixel.sub(eye); // will be normalised in model.Ray::ctor
-        return new Ray(eye, direction);
+    /**
+     * Creates the task rendering a part of this task's tiles the same way
+     */
+    protected RotatedRayCasterTask subTask(int startTile, int endTile) {
+        return new RotatedRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, volumeRenderer, vol, quality,
+                cancelled, samplesTaken, startTile, endTile);
     }
 
     /**
-     * Translates the entering and exit intersection points from the world coordinates
-     * to 3D matrix coordinates.
-     *
-     * @param intersections the two real-world coordinate intersections,
-     *                      [0] is the entry intersection,
-     *                      [1] is the leave intersection
-     * @return the 3D matrix coordinates of the volume for the entry and the leave intersection
+     * Renders one tile, casting a ray from the top-left pixel of every
+     * <code>pixelStep</code> x <code>pixelStep</code> block and filling the whole block with its colour.
+     * The view port is one world unit per pixel, so the camera steps are the offsets between neighbouring pixels:
+     * the ray through the first pixel of a row is set up once, and every other pixel adds a multiple of the step
      */
-    protected Vector3D[] translateToVolumeCoordinates(Vector3D[] intersections) {
-        if (intersections == null) {
-            return null;
+    protected void renderTile(int startX, int startY, int endX, int endY, RayScratch scratch) {
+        int pixelStep = quality.getPixelStep();
+        double sampleStep = quality.getSampleStep();
+        CameraState state = cameraState;
+        for (int y = startY; y < endY; y += pixelStep) {
+            //from the eye to the first pixel of the row
+            double rowX = state.getCornerX() + state.getStepYX() * y + state.getStepXX() * startX - state.getEyeX();
+            double rowY = state.getCornerY() + state.getStepYY() * y + state.getStepXY() * startX - state.getEyeY();
+            double rowZ = state.getCornerZ() + state.getStepYZ() * y + state.getStepXZ() * startX - state.getEyeZ();
+
+            for (int x = startX; x < endX; x += pixelStep) {
+                int column = x - startX;
+                double directionX = rowX + state.getStepXX() * column;
+                double directionY = rowY + state.getStepXY() * column;
+                double directionZ = rowZ + state.getStepXZ() * column;
+                double magnitude = Math.sqrt(
+                        directionX * directionX + directionY * directionY + directionZ * directionZ);
+
+                int argb = castRay(directionX / magnitude, directionY / magnitude, directionZ / magnitude,
+                        sampleStep, scratch);
+                fillBlock(x, y, Math.min(x + pixelStep, endX), Math.min(y + pixelStep, endY), argb);
+            }
         }
-        Vector3D[] volumeMatrixIntersections = new Vector3D[2];
-        volumeMatrixIntersections[0] = new Vector3D(
-                intersections[0].getZ(),
-                226 - intersections[0].getY(),
-                intersections[0].getX()
-        );
+    }
 
-        volumeMatrixIntersections[1] = new Vector3D(
-                intersections[1].getZ(),
-                226 - intersections[1].getY(),
-                intersections[1].getX()
-        );
+    /**
+     * Clips the ray to the volume and then to its visible box, and marches what is left.
+     * The entry point on the visible box is moved back onto the samples the whole segment would have taken,
+     * so the clipping does not shift where the volume is sampled
+     * @return the colour of the ray in the <code>IntArgbPre</code> format
+     */
+    private int castRay(double directionX, double directionY, double directionZ,
+                        double sampleStep, RayScratch scratch) {
+        double eyeX = cameraState.getEyeX();
+        double eyeY = cameraState.getEyeY();
+        double eyeZ = cameraState.getEyeZ();
+        double[] distances = scratch.distances;
+        if (!aabb.getIntersectionDistances(eyeX, eyeY, eyeZ,
+                directionX, directionY, directionZ, 0, Float.MAX_VALUE, distances)) {
+            return BACKGROUND_ARGB;
+        }
+        double entry = distances[0];
+        double exit = distances[1];
+        if (visibleAabb != aabb) {
+            if (visibleAabb == null || !visibleAabb.getIntersectionDistances(eyeX, eyeY, eyeZ,
+                    directionX, directionY, directionZ, 0, Float.MAX_VALUE, distances)) {
+                return TRANSPARENT_ARGB;
+            }
+            //world and volume coordinates share their scale, so the samples are sampleStep apart on the ray
+            entry += Math.max(0, Math.floor((distances[0] - entry) / sampleStep)) * sampleStep;
+            exit = distances[1];
+        }
 
-        return volumeMatrixIntersections;
+        //world x runs along the width of the volume, y up its rows and z along its depth
+        int height = vol.getHeight();
+        return volumeRenderer.sampleCompositeShadeArgbPre(
+                eyeZ + directionZ * entry,
+                height - (eyeY + directionY * entry),
+                eyeX + directionX * entry,
+                eyeZ + directionZ * exit,
+                height - (eyeY + directionY * exit),
+                eyeX + directionX * exit,
+                vol,
+                cameraState,
+                sampleStep,
+                scratch
+        );
+    }
 
+    protected void fillBlock(int startX, int startY, int endX, int endY, int argb) {
+        for (int y = startY; y < endY; y++) {
+            int rowOffset = y * Camera.VIEW_PLANE_WIDTH;
+            for (int x = startX; x < endX; x++) {
+                frameBuffer[rowOffset + x] = argb;
+            }
+        }
     }
 
 }
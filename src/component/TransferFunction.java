@@ -0,0 +1,89 @@
+package component;
+
+import javafx.scene.paint.Color;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * This class represents an HU to colour mapping compiled into a dense look-up table,
+ * one RGBA entry of four floats per value between the minimum and the maximum value.
+ * Every value takes the colour of the smallest mapped HU ceiling at or above it;
+ * values mapped to white, or above every ceiling, are transparent (alpha 0), all others have alpha 1.
+ * A running count of the visible values answers whether a whole range of values is transparent in constant time.
+ * Instances are immutable, so a new table can be swapped in while rays still read the old one.
+ *
+ * @author Kasper Krawczyk
+ */
+public final class TransferFunction {
+
+    public static final int CHANNELS = 4;
+
+    private final short minValue;
+    private final short maxValue;
+    private final float[] rgba;
+    /**
+     * <code>visibleBefore[i]</code> is the number of values with a non-zero alpha among the first <code>i</code>
+     */
+    private final int[] visibleBefore;
+
+    public TransferFunction(NavigableMap<Short, Color> huToColorMap, short minValue, short maxValue) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.rgba = new float[(maxValue - minValue + 1) * CHANNELS];
+
+        for (int value = minValue; value <= maxValue; value++) {
+            Map.Entry<Short, Color> ceiling = huToColorMap.ceilingEntry((short) value);
+            if (ceiling == null) {
+                continue;
+            }
+            Color color = ceiling.getValue();
+            int offset = (value - minValue) * CHANNELS;
+            rgba[offset] = (float) color.getRed();
+            rgba[offset + 1] = (float) color.getGreen();
+            rgba[offset + 2] = (float) color.getBlue();
+            rgba[offset + 3] = color.equals(Color.WHITE) ? 0 : 1;
+        }
+
+        this.visibleBefore = new int[maxValue - minValue + 2];
+        for (int i = 0; i <= maxValue - minValue; i++) {
+            visibleBefore[i + 1] = visibleBefore[i] + (rgba[i * CHANNELS + 3] != 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Checks whether every value in the range maps to zero alpha,
+     * values outside the table taking the alpha of its nearest end as in {@link #offset(short)}
+     * @param from the smallest value of the range
+     * @param to   the largest value of the range
+     * @return true if no value in the range is visible
+     */
+    public boolean isTransparent(int from, int to) {
+        int first = Math.min(Math.max(from, minValue), maxValue) - minValue;
+        int last = Math.min(Math.max(to, minValue), maxValue) - minValue;
+        return visibleBefore[last + 1] - visibleBefore[first] == 0;
+    }
+
+    /**
+     * Returns the offset of the RGBA entry for the given value in {@link #getRgba()},
+     * clamping the value to the range of the table
+     * @param value the HU value to look up
+     * @return the offset of the red channel, followed by green, blue and alpha
+     */
+    public int offset(short value) {
+        int clamped = Math.min(Math.max(value, minValue), maxValue);
+        return (clamped - minValue) * CHANNELS;
+    }
+
+    public float[] getRgba() {
+        return rgba;
+    }
+
+    public short getMinValue() {
+        return minValue;
+    }
+
+    public short getMaxValue() {
+        return maxValue;
+    }
+}
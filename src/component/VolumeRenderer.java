@@ -1,7 +1,7 @@
 package component;
 
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelWriter;
+import javafx.scene.image.PixelFormat;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import mathutil.Gradients;
@@ -9,31 +9,71 @@ import mathutil.Reflections;
 import model.*;
 
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 public class VolumeRenderer {
 
     private final NavigableMap<Short, Color> huToColorMap = new TreeMap<>();
     private final Camera camera;
+    private volatile Classification classification;
+    private short minValue = Short.MIN_VALUE;
+    private short maxValue = Short.MAX_VALUE;
+    private MacroCellGrid macroCellGrid;
+    private MinMaxOctree minMaxOctree;
+    private double[] opacityLUT;
+    private volatile EmptySpaceSkipping emptySpaceSkipping = EmptySpaceSkipping.MACRO_CELLS;
+    private volatile int octreeLeafLevel = DEFAULT_OCTREE_LEAF_LEVEL;
+    private volatile long lastFrameSamples;
+    private volatile RayCastingEngine rayCastingEngine = RayCastingEngine.SCALAR;
+    private volatile ForkJoinPool renderPool = RENDER_POOL;
+    private volatile FrameCache frameCache = new FrameCache();
+    private volatile boolean lastFrameCached;
+    private long classificationVersion;
+    private Supplier<GradientField> gradientFieldSource;
+    private GradientField gradientField;
+    private boolean usePrecomputedGradients = false;
+    private double opacityThreshold = DEFAULT_OPACITY_THRESHOLD;
+    /**
+     * Packed <code>IntArgbPre</code> pixels of the frame being rendered, row by row
+     */
+    private final int[] frameBuffer = new int[Camera.VIEW_PLANE_WIDTH * Camera.VIEW_PLANE_HEIGHT];
+    private final WritableImage[] frameImages = new WritableImage[2];
+    private int backImage = 0;
 
 
     public VolumeRenderer(Camera camera) {
         this.camera = camera;
         populateMapDefault();
+        rebuildClassification();
     }
 
     public VolumeRenderer(Camera camera, HashMap<Short, Color> huToColorMap) {
         this.camera = camera;
         this.huToColorMap.putAll(huToColorMap);
+        rebuildClassification();
     }
 
-    public static final String NUM_OF_THREADS_ERR_MSG = "The number of threads should divide the image width with no remainder";
+    public static final double DEFAULT_OPACITY_THRESHOLD = 0.99;
+    public static final int DEFAULT_OCTREE_LEAF_LEVEL = 2;
+    public static final String ENGINE_UNAVAILABLE_MSG =
+            "The %s ray casting engine is not available, falling back to the scalar one";
+    /**
+     * Long-lived workers shared by every renderer, one per core, so no threads are started per frame
+     */
+    private static final ForkJoinPool RENDER_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
     public ArrayList<Voxel> collectSamples(Vector3D intersection0, Vector3D intersection1, short[][][] vol) {
+        return collectSamples(intersection0, intersection1, VolumeBuffer.fromArray(vol));
+    }
+
+    public ArrayList<Voxel> collectSamples(Vector3D intersection0, Vector3D intersection1, VolumeBuffer vol) {
         ArrayList<Voxel> list = new ArrayList<>();
-        int depth = vol.length;
-        int height = vol[0].length;
-        int width = vol[0][0].length;
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
 
         Point3D point0 = Point3D.Point3DfromVector(intersection0);
         Point3D point1 = Point3D.Point3DfromVector(intersection1);
@@ -45,9 +85,9 @@ public class VolumeRenderer {
         for (int i = 0; i < distanceInt; i++) {
 
             //clip
-            curSamplePoint.setX(Math.min(Math.max(0, curSamplePoint.getX()), width - 1));
+            curSamplePoint.setX(Math.min(Math.max(0, curSamplePoint.getX()), depth - 1));
             curSamplePoint.setY(Math.min(Math.max(0, curSamplePoint.getY()), height - 1));
-            curSamplePoint.setZ(Math.min(Math.max(0, curSamplePoint.getZ()), depth - 1));
+            curSamplePoint.setZ(Math.min(Math.max(0, curSamplePoint.getZ()), width - 1));
 
 
             short interpolatedSampleShort = Gradients.tlerp(
@@ -57,11 +97,16 @@ public class VolumeRenderer {
                     vol
             );
 
-            Vector3D gradient = Gradients.get3DGradientInterpolated3D(
-                    curSamplePoint.getX(),
-                    curSamplePoint.getY(),
-                    curSamplePoint.getZ(),
-                    vol).flip();
+            Vector3D gradient = isUsingPrecomputedGradients()
+                    ? gradientField.sample(
+                            curSamplePoint.getX(),
+                            curSamplePoint.getY(),
+                            curSamplePoint.getZ()).flip()
+                    : Gradients.get3DGradientInterpolated3D(
+                            curSamplePoint.getX(),
+                            curSamplePoint.getY(),
+                            curSamplePoint.getZ(),
+                            vol).flip();
 
             Voxel voxel = new Voxel(
                     curSamplePoint.getX(),
@@ -86,17 +131,20 @@ public class VolumeRenderer {
         double gAcc = 0;
         double bAcc = 0;
         double transparencyAcc = 1;
+        TransferFunction transferFunction = this.classification.transferFunction;
+        double[] opacityLUT = this.classification.opacityLUT;
+        float[] rgba = transferFunction.getRgba();
 
 
         for (Voxel sample : list) {
             short sampleValue = sample.getMaterialValue();
 
-            Color color = huToColorMap.ceilingEntry(sampleValue).getValue();
-            r = color.getRed();
-            g = color.getGreen();
-            b = color.getBlue();
-            if (!color.equals(Color.WHITE)) {
-                opacity = DataSet.getOpacityLUT()[(int) sample.getGradient().magnitude()];
+            int offset = transferFunction.offset(sampleValue);
+            r = rgba[offset];
+            g = rgba[offset + 1];
+            b = rgba[offset + 2];
+            if (rgba[offset + 3] != 0) {
+                opacity = opacityLUT[Math.min((int) sample.getGradient().magnitude(), opacityLUT.length - 1)];
             } else {
                 opacity = 0;
             }
@@ -150,31 +198,472 @@ public class VolumeRenderer {
 
 
     public Color sampleCompositeShade(Vector3D intersectionVector0, Vector3D intersectionVector1,
-                                      short[][][] vol) {
-        ArrayList<Voxel> list = collectSamples(intersectionVector0, intersectionVector1, vol);
-        return compositeSamples(list);
+                                      VolumeBuffer vol) {
+        return sampleCompositeShade(intersectionVector0, intersectionVector1, vol, new RayScratch());
+    }
+
+    public Color sampleCompositeShade(Vector3D intersectionVector0, Vector3D intersectionVector1,
+                                      VolumeBuffer vol, RayScratch scratch) {
+        marchRay(intersectionVector0.getX(), intersectionVector0.getY(), intersectionVector0.getZ(),
+                intersectionVector1.getX(), intersectionVector1.getY(), intersectionVector1.getZ(),
+                vol, camera.getState(), 1, scratch);
+        double[] rgba = scratch.rgba;
+        return Color.color(rgba[0], rgba[1], rgba[2], rgba[3]);
+    }
+
+    /**
+     * Marches the ray like {@link #sampleCompositeShade(Vector3D, Vector3D, VolumeBuffer, RayScratch)},
+     * but returns the colour packed as a premultiplied ARGB int for the framebuffer, without allocating
+     *
+     * @param intersectionVector0 the entry point in volume coordinates
+     * @param intersectionVector1 the exit point in volume coordinates
+     * @param vol                 the volume
+     * @param sampleStep          the distance between samples in voxels, 1 for full quality
+     * @param scratch             the scratch space of the calling worker, reused between calls
+     * @return the composited colour of the ray in the <code>IntArgbPre</code> format
+     */
+    public int sampleCompositeShadeArgbPre(Vector3D intersectionVector0, Vector3D intersectionVector1,
+                                           VolumeBuffer vol, double sampleStep, RayScratch scratch) {
+        return sampleCompositeShadeArgbPre(
+                intersectionVector0.getX(), intersectionVector0.getY(), intersectionVector0.getZ(),
+                intersectionVector1.getX(), intersectionVector1.getY(), intersectionVector1.getZ(),
+                vol, camera.getState(), sampleStep, scratch);
+    }
+
+    /**
+     * Marches the ray from (<code>x0</code>, <code>y0</code>, <code>z0</code>)
+     * to (<code>x1</code>, <code>y1</code>, <code>z1</code>) in volume coordinates, for callers that set up
+     * their rays on primitives, shading with the light of the given camera snapshot
+     * @return the composited colour of the ray in the <code>IntArgbPre</code> format
+     */
+    public int sampleCompositeShadeArgbPre(double x0, double y0, double z0, double x1, double y1, double z1,
+                                           Volume vol, CameraState cameraState, double sampleStep,
+                                           RayScratch scratch) {
+        marchRay(x0, y0, z0, x1, y1, z1, vol, cameraState, sampleStep, scratch);
+        double[] rgba = scratch.rgba;
+        return toArgbPre(rgba[0], rgba[1], rgba[2], rgba[3]);
+    }
+
+    /**
+     * Packs a colour into a premultiplied ARGB int, rounding the way <code>PixelWriter.setColor</code> does,
+     * so the framebuffer holds exactly what setting the equivalent <code>Color</code> would have
+     */
+    static int toArgbPre(double red, double green, double blue, double opacity) {
+        int a = (int) Math.round((float) opacity * 255.0);
+        if (a == 0) {
+            return 0;
+        }
+        int r = (int) Math.round((float) red * 255.0);
+        int g = (int) Math.round((float) green * 255.0);
+        int b = (int) Math.round((float) blue * 255.0);
+        if (a < 0xff) {
+            r = (r * a + 127) / 0xff;
+            g = (g * a + 127) / 0xff;
+            b = (b * a + 127) / 0xff;
+        }
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Marches the ray from (<code>x0</code>, <code>y0</code>, <code>z0</code>)
+     * to (<code>x1</code>, <code>y1</code>, <code>z1</code>), sampling, classifying, shading and compositing front to back in one pass over primitive locals.
+     * It gives the same result as {@link #compositeSamples(ArrayList)} over {@link #collectSamples},
+     * but without the list, the voxels or the gradient vectors, and it stops as soon as
+     * a fully opaque sample is hit or the accumulated opacity reaches the opacity threshold.
+     * Samples in empty space are skipped as set by {@link #setEmptySpaceSkipping(EmptySpaceSkipping)};
+     * they would add nothing, and the positions of the samples taken are unchanged.
+     * A bricked volume is read a brick at a time, every sample from the brick holding its lower corner voxel,
+     * which gives the same samples and gradients as the whole volume would
+     *
+     * @param x0         the entry point in volume coordinates, along the depth
+     * @param y0         along the height
+     * @param z0         along the width
+     * @param x1         the exit point in volume coordinates, along the depth
+     * @param y1         along the height
+     * @param z1         along the width
+     * @param vol        the volume, in memory or bricked
+     * @param cameraState the camera the frame is rendered from, giving the light to shade with
+     * @param sampleStep the distance between samples in voxels; above 1 the opacities
+     *                   are corrected so the coarser march keeps roughly the same density
+     * @param scratch    the scratch space of the calling worker, receiving the composited
+     *                   red, green, blue and opacity in <code>rgba</code>
+     */
+    private void marchRay(double x0, double y0, double z0, double x1, double y1, double z1,
+                          Volume vol, CameraState cameraState, double sampleStep, RayScratch scratch) {
+        float[] gradient = scratch.gradient;
+        double[] result = scratch.rgba;
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
+        VolumeBuffer buffer = vol instanceof VolumeBuffer ? (VolumeBuffer) vol : null;
+        BrickedVolume bricks = buffer == null ? (BrickedVolume) vol : null;
+        BrickedVolume.Brick brick = null;
+        double lightX = cameraState.getLightX();
+        double lightY = cameraState.getLightY();
+        double lightZ = cameraState.getLightZ();
+        //the gradient field is built over a whole volume in memory
+        boolean usePrecomputedGradients = isUsingPrecomputedGradients() && buffer != null;
+        Classification classification = this.classification;
+        TransferFunction transferFunction = classification.transferFunction;
+        double[] opacityLUT = classification.opacityLUT;
+        float[] rgba = transferFunction.getRgba();
+
+        double x = x0;
+        double y = y0;
+        double z = z0;
+        double deltaX = x1 - x;
+        double deltaY = y1 - y;
+        double deltaZ = z1 - z;
+        double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY + deltaZ * deltaZ);
+        double stepX = deltaX / distance * sampleStep;
+        double stepY = deltaY / distance * sampleStep;
+        double stepZ = deltaZ / distance * sampleStep;
+        int distanceInt = (int) (distance / sampleStep);
+
+        EmptySpaceSkipping emptySpaceSkipping = this.emptySpaceSkipping;
+        MacroCellGrid macroCellGrid = null;
+        boolean[] emptyCells = null;
+        MinMaxOctree.SampleRanges sampleRanges = null;
+        if (emptySpaceSkipping == EmptySpaceSkipping.OCTREE
+                && classification.minMaxOctree != null && classification.minMaxOctree.covers(vol)) {
+            //the octree leaps over its empty subtrees, its leaves refine the occupied ranges
+            macroCellGrid = classification.minMaxOctree.getLeaves();
+            emptyCells = classification.emptyNodes[0];
+            sampleRanges = scratch.sampleRanges;
+            sampleRanges.setRay(x, y, z, stepX, stepY, stepZ, distanceInt);
+            classification.minMaxOctree.clip(classification.emptyNodes, octreeLeafLevel, sampleRanges);
+        } else if (emptySpaceSkipping != EmptySpaceSkipping.NONE
+                && classification.macroCellGrid != null && classification.macroCellGrid.covers(vol)) {
+            macroCellGrid = classification.macroCellGrid;
+            emptyCells = classification.emptyCells;
+        }
+        int range = 0;
+        long samplesTaken = 0;
+
+        double rAcc = 0;
+        double gAcc = 0;
+        double bAcc = 0;
+        double transparencyAcc = 1;
+
+        for (int i = 0; i < distanceInt; i++) {
+
+            if (sampleRanges != null) {
+                while (range < sampleRanges.getCount() && i > sampleRanges.getLast(range)) {
+                    range++;
+                }
+                //no occupied leaf is left along the ray
+                if (range == sampleRanges.getCount()) {
+                    break;
+                }
+                if (i < sampleRanges.getFirst(range)) {
+                    x = Math.min(Math.max(0, x), depth - 1) + stepX;
+                    y = Math.min(Math.max(0, y), height - 1) + stepY;
+                    z = Math.min(Math.max(0, z), width - 1) + stepZ;
+                    continue;
+                }
+            }
+
+            //clip
+            x = Math.min(Math.max(0, x), depth - 1);
+            y = Math.min(Math.max(0, y), height - 1);
+            z = Math.min(Math.max(0, z), width - 1);
+
+            //a macro cell the transfer function leaves fully transparent adds nothing, so skip its samples
+            if (emptyCells != null && emptyCells[macroCellGrid.cellIndex((int) x, (int) y, (int) z)]) {
+                x += stepX;
+                y += stepY;
+                z += stepZ;
+                continue;
+            }
+
+            VolumeBuffer source = buffer;
+            int originDepth = 0;
+            int originHeight = 0;
+            int originWidth = 0;
+            if (source == null) {
+                if (brick == null || !brick.contains((int) x, (int) y, (int) z)) {
+                    brick = bricks.getBrick((int) x, (int) y, (int) z);
+                }
+                source = brick.getBuffer();
+                originDepth = brick.getOriginZ();
+                originHeight = brick.getOriginY();
+                originWidth = brick.getOriginX();
+            }
+
+            short sampleValue = Gradients.tlerp(x - originDepth, y - originHeight, z - originWidth, source);
+            samplesTaken++;
+
+            //the flipped gradient, x along the volume width and z along its depth as in collectSamples
+            double gradientX;
+            double gradientY;
+            double gradientZ;
+            if (usePrecomputedGradients) {
+                gradientField.sample(x, y, z, gradient);
+                gradientX = -gradient[0];
+                gradientY = -gradient[1];
+                gradientZ = -gradient[2];
+            } else {
+                int depthIndex = (int) x;
+                int heightIndex = (int) y;
+                int widthIndex = (int) z;
+                int index = source.index(depthIndex - originDepth, heightIndex - originHeight,
+                        widthIndex - originWidth);
+                short[] data = source.getData();
+                gradientZ = -Gradients.getLinearGradient(index, depthIndex, depth, source.getStrideZ(), data,
+                        (float) (x - depthIndex));
+                gradientY = -Gradients.getLinearGradient(index, heightIndex, height, source.getStrideY(), data,
+                        (float) (y - heightIndex));
+                gradientX = -Gradients.getLinearGradient(index, widthIndex, width, 1, data,
+                        (float) (z - widthIndex));
+            }
+            double gradientMagnitude = Math.sqrt(
+                    gradientX * gradientX + gradientY * gradientY + gradientZ * gradientZ);
+
+            int offset = transferFunction.offset(sampleValue);
+            double opacity = rgba[offset + 3] == 0
+                    ? 0
+                    : opacityLUT[Math.min((int) gradientMagnitude, opacityLUT.length - 1)];
+            if (sampleStep != 1) {
+                opacity = 1 - Math.pow(1 - opacity, sampleStep);
+            }
+
+            //Lambertian reflection, rounded to float as the shaded Color would be
+            double toLightX = lightX - x;
+            double toLightY = lightY - y;
+            double toLightZ = lightZ - z;
+            double toLightMagnitude = Math.sqrt(
+                    toLightX * toLightX + toLightY * toLightY + toLightZ * toLightZ);
+            double cosTheta = (gradientX / gradientMagnitude) * (toLightX / toLightMagnitude)
+                    + (gradientY / gradientMagnitude) * (toLightY / toLightMagnitude)
+                    + (gradientZ / gradientMagnitude) * (toLightZ / toLightMagnitude);
+            cosTheta = cosTheta > 0 ? cosTheta : 0;
+            double shadedRed = (float) Math.min(1, rgba[offset] * cosTheta);
+            double shadedGreen = (float) Math.min(1, rgba[offset + 1] * cosTheta);
+            double shadedBlue = (float) Math.min(1, rgba[offset + 2] * cosTheta);
+            double shadedOpacity = (float) opacity;
+
+            rAcc += transparencyAcc * opacity * shadedRed;
+            gAcc += transparencyAcc * opacity * shadedGreen;
+            bAcc += transparencyAcc * opacity * shadedBlue;
+            transparencyAcc *= (1 - shadedOpacity);
+
+            //no use marching any further as a fully opaque material has been hit
+            if (opacity == 1 || transparencyAcc <= 1 - opacityThreshold) {
+                break;
+            }
+            x += stepX;
+            y += stepY;
+            z += stepZ;
+        }
+
+        rAcc = Math.min(1, rAcc);
+        gAcc = Math.min(1, gAcc);
+        bAcc = Math.min(1, bAcc);
+
+        result[0] = rAcc;
+        result[1] = gAcc;
+        result[2] = bAcc;
+        result[3] = 1 - transparencyAcc;
+        scratch.samplesTaken += samplesTaken;
+    }
+
+    /**
+     * Renders the jagged volume by copying it into a contiguous <code>VolumeBuffer</code> first.
+     * Kept for the callers that still hold a <code>short[][][]</code>
+     */
+    public Image volumeRayCastParallelized(short[][][] vol) {
+        return volumeRayCastParallelized(VolumeBuffer.fromArray(vol));
+    }
+
+    /**
+     * Renders the volume on the shared render pool, in tiles scheduled by work stealing
+     * @param vol the volume to render
+     * @return the rendered image
+     */
+    public Image volumeRayCastParallelized(VolumeBuffer vol) {
+        return volumeRayCastParallelized(vol, RenderQuality.FULL);
+    }
+
+    /**
+     * Renders the volume at the given quality, casting one ray per block of pixels
+     * and marching with a longer step for the cheaper interactive frames
+     * @param vol     the volume to render
+     * @param quality how coarsely to render
+     * @return the rendered image
+     */
+    public synchronized Image volumeRayCastParallelized(VolumeBuffer vol, RenderQuality quality) {
+        renderFrame(vol, quality, frameBuffer, () -> false);
+
+        return uploadFrameBuffer();
+    }
+
+    /**
+     * Renders the volume into the given framebuffer on the shared render pool,
+     * from a snapshot of the camera taken as the frame starts.
+     * A full-quality frame cached for the same camera, light, transfer function and volume
+     * is copied instead, whatever the quality asked for.
+     * Every tile checks <code>cancelled</code> before it starts, so a frame that has been superseded
+     * stops after at most one tile per worker and leaves the rest of the framebuffer untouched
+     * @param vol         the volume to render, in memory or bricked
+     * @param quality     how coarsely to render
+     * @param frameBuffer the <code>IntArgbPre</code> pixels to write, row by row
+     * @param cancelled   polled by the tiles, true once the frame is no longer wanted
+     * @return true if the frame was rendered completely, false if it was cancelled
+     */
+    public boolean renderFrame(Volume vol, RenderQuality quality, int[] frameBuffer, BooleanSupplier cancelled) {
+        CameraState cameraState = camera.getState();
+        Classification classification = this.classification;
+        FrameCache frameCache = this.frameCache;
+        FrameCache.Key key = frameCache != null ? frameKey(vol, cameraState, classification) : null;
+        if (key != null && frameCache.get(key, frameBuffer)) {
+            lastFrameSamples = 0;
+            lastFrameCached = true;
+            return true;
+        }
 
+        prefetchAlongView(vol, cameraState);
+        AABB aabb = getVolumeAabb(vol);
+        AABB visibleAabb = getVisibleAabb(vol, aabb);
+        LongAdder samplesTaken = new LongAdder();
+        renderPool.invoke(createRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, vol, quality,
+                cancelled, samplesTaken));
+        lastFrameSamples = samplesTaken.sum();
+        lastFrameCached = false;
+        boolean completed = !cancelled.getAsBoolean();
+        //a frame the transfer function changed under may mix both, so it is not kept
+        if (key != null && completed && quality.isFull() && classification == this.classification) {
+            frameCache.put(key, frameBuffer);
+        }
+        return completed;
+    }
 
+    /**
+     * Returns the key a frame rendered now would be cached under: the camera snapshot, the volume,
+     * the version of the transfer function and opacity table and the settings that change the pixels
+     */
+    private FrameCache.Key frameKey(Volume vol, CameraState cameraState, Classification classification) {
+        return new FrameCache.Key(cameraState,
+                vol.getId(),
+                classification.version,
+                Double.doubleToLongBits(opacityThreshold),
+                isUsingPrecomputedGradients() ? 1 : 0,
+                emptySpaceSkipping.ordinal(),
+                octreeLeafLevel);
     }
 
-    public Image volumeRayCastParallelized(short[][][] vol, int numOfThreads) {
-        Vector3D aabbOffset = new Vector3D(0, 0, 0);
+    /**
+     * Starts rendering a frame on the render pool and returns without waiting for it.
+     * The tiles of frames submitted one after another are scheduled onto the same workers,
+     * so a frame can start while the last tiles of the one before it are still being cast
+     * @param vol          the volume to render, in memory or bricked
+     * @param cameraState  the camera to render the frame from
+     * @param quality      how coarsely to render
+     * @param frameBuffer  the <code>IntArgbPre</code> pixels to write, row by row
+     * @param cancelled    polled by the tiles, true once the frame is no longer wanted
+     * @param samplesTaken receives the number of samples taken in the frame
+     * @return the task rendering the frame, done once every tile has been written
+     */
+    public RotatedRayCasterTask submitFrame(Volume vol, CameraState cameraState, RenderQuality quality,
+                                            int[] frameBuffer, BooleanSupplier cancelled, LongAdder samplesTaken) {
+        prefetchAlongView(vol, cameraState);
+        AABB aabb = getVolumeAabb(vol);
+        AABB visibleAabb = getVisibleAabb(vol, aabb);
+        RotatedRayCasterTask task = createRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, vol, quality,
+                cancelled, samplesTaken);
+        renderPool.execute(task);
+        return task;
+    }
 
+    /**
+     * Points the prefetching of a bricked volume along the ray through the centre of the frame,
+     * so the bricks the rays go on to are loaded ahead of them
+     */
+    private static void prefetchAlongView(Volume vol, CameraState cameraState) {
+        if (!(vol instanceof BrickedVolume)) {
+            return;
+        }
+        double column = Camera.VIEW_PLANE_WIDTH / 2.0;
+        double row = Camera.VIEW_PLANE_HEIGHT / 2.0;
+        double directionX = cameraState.getCornerX() + cameraState.getStepXX() * column
+                + cameraState.getStepYX() * row - cameraState.getEyeX();
+        double directionY = cameraState.getCornerY() + cameraState.getStepXY() * column
+                + cameraState.getStepYY() * row - cameraState.getEyeY();
+        double directionZ = cameraState.getCornerZ() + cameraState.getStepXZ() * column
+                + cameraState.getStepYZ() * row - cameraState.getEyeZ();
+        //world x runs along the width of the volume, y up its rows, which are stored top to bottom, and z along its depth
+        ((BrickedVolume) vol).setViewDirection(directionZ, -directionY, directionX);
+    }
 
-        WritableImage renderedImage = new WritableImage(Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT);
-        Color[][] colorMat = new Color[Camera.VIEW_PLANE_HEIGHT][Camera.VIEW_PLANE_WIDTH];
-        PixelWriter pixelWriter = renderedImage.getPixelWriter();
-        AABB aabb = new AABB(
-                new Vector3D(255, 226, 255).add(aabbOffset),
-                new Vector3D(0, 0, 0).add(aabbOffset)
+    /**
+     * Returns the box the volume takes up in world coordinates: x runs along its width, z along its depth,
+     * and y up its rows, which are stored top to bottom
+     * @param vol the volume to bound
+     * @return the bounding box of the whole volume
+     */
+    public static AABB getVolumeAabb(Volume vol) {
+        return new AABB(
+                new Vector3D(vol.getWidth() - 1, vol.getHeight(), vol.getDepth() - 1),
+                new Vector3D(0, 0, 0)
         );
+    }
 
-        runRotatedRayCasterTasks(numOfThreads, colorMat, aabb, vol);
-        matToImg(colorMat, pixelWriter);
+    /**
+     * Returns the part of the volume box holding every macro cell the current transfer function does not
+     * leave fully transparent. Rays are clipped to it, as the samples outside it would add nothing
+     * @param vol         the volume to bound
+     * @param volumeAabb  the box of the whole volume, returned as is when empty space is not skipped
+     * @return the box of the visible voxels in world coordinates, or null if no voxel is visible
+     */
+    public AABB getVisibleAabb(Volume vol, AABB volumeAabb) {
+        Classification classification = this.classification;
+        if (emptySpaceSkipping == EmptySpaceSkipping.NONE
+                || classification.macroCellGrid == null || !classification.macroCellGrid.covers(vol)) {
+            return volumeAabb;
+        }
+        int[] bounds = classification.occupiedBounds;
+        if (bounds == null) {
+            return null;
+        }
+        //{minZ, minY, minX, maxZ, maxY, maxX} in voxels, the rows flipped as in getVolumeAabb
+        return new AABB(
+                new Vector3D(
+                        Math.min(bounds[5], vol.getWidth() - 1),
+                        vol.getHeight() - bounds[1],
+                        Math.min(bounds[3], vol.getDepth() - 1)
+                ),
+                new Vector3D(
+                        bounds[2],
+                        vol.getHeight() - Math.min(bounds[4], vol.getHeight()),
+                        bounds[0]
+                )
+        );
+    }
 
+    /**
+     * Uploads the framebuffer in one bulk write to the image that is not on screen, then swaps the two,
+     * so the images are allocated once and a frame is never written while it is being displayed
+     * @return the image holding the new frame
+     */
+    private WritableImage uploadFrameBuffer() {
+        if (frameImages[backImage] == null) {
+            frameImages[backImage] = new WritableImage(Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT);
+        }
+        WritableImage renderedImage = frameImages[backImage];
+        uploadFrame(frameBuffer, renderedImage);
+        backImage ^= 1;
         return renderedImage;
     }
 
+    /**
+     * Writes a whole framebuffer to an image in one bulk <code>setPixels</code> call
+     * @param frameBuffer the <code>IntArgbPre</code> pixels, row by row
+     * @param image       the view-plane sized image to write to
+     */
+    public static void uploadFrame(int[] frameBuffer, WritableImage image) {
+        image.getPixelWriter().setPixels(0, 0, Camera.VIEW_PLANE_WIDTH, Camera.VIEW_PLANE_HEIGHT,
+                PixelFormat.getIntArgbPreInstance(), frameBuffer, 0, Camera.VIEW_PLANE_WIDTH);
+    }
+
 //    public static Image volumeRayCastParallelized(short[][][] vol, int numOfThreads) {
 //        WorldOld.initWorld();
 //        model.Vector3D aabbOffset = new model.Vector3D(0, 0, 0);
@@ -196,29 +685,6 @@ public class VolumeRenderer {
 //    }
 
 
-    private static void matToImg(Color[][] colorMat, PixelWriter pixelWriter) {
-        for (int y = 0; y < Camera.VIEW_PLANE_HEIGHT; y++) {
-            for (int x = 0; x < Camera.VIEW_PLANE_WIDTH; x++) {
-                    pixelWriter.setColor(x, y, colorMat[y][x]);
-            }
-        }
-    }
-
-    private static int[][] getBoundingIndices(int sectionWidth) {
-        int numOfSections = Camera.VIEW_PLANE_WIDTH / sectionWidth;
-        //[sectionNum][0] for start, [sectionNum][1] for end
-        int[][] indices = new int[numOfSections][2];
-        int curStart;
-        int curEnd;
-        for (int sectionNum = 0; sectionNum < numOfSections; sectionNum++) {
-            curStart = sectionWidth * sectionNum;
-            curEnd = curStart + sectionWidth;
-            indices[sectionNum][0] = curStart;
-            indices[sectionNum][1] = curEnd;
-        }
-        return indices;
-    }
-
 //    private static void runRayCasterTasks(int numOfThreads, Color[][] colorMat, model.AABB aabb,
 //                                          model.Vector3D aabbOffset, short[][][] vol) {
 //        if (!isCorrectNumThreads(numOfThreads)) {
@@ -249,35 +715,17 @@ public class VolumeRenderer {
 //    }
 
 
-    private void runRotatedRayCasterTasks(int numOfThreads, Color[][] colorMat, AABB aabb, short[][][] vol) {
-        if (!isCorrectNumThreads(numOfThreads)) {
-            throw new IllegalArgumentException(NUM_OF_THREADS_ERR_MSG);
-        }
-        Thread[] taskThreads = new Thread[numOfThreads];
-        CountDownLatch latch = new CountDownLatch(numOfThreads);
-        int sectionWidth = Camera.VIEW_PLANE_WIDTH / numOfThreads;
-        int[][] boundingIndices = getBoundingIndices(sectionWidth);
-        int startIndex;
-        int endIndex;
-        for (int numOfSection = 0; numOfSection < numOfThreads; numOfSection++) {
-            startIndex = boundingIndices[numOfSection][0];
-            endIndex = boundingIndices[numOfSection][1];
-            RotatedRayCasterTask task = new RotatedRayCasterTask(
-                    colorMat, aabb, camera, latch, this, vol, startIndex, endIndex
-            );
-            taskThreads[numOfSection] = new Thread(task);
-            taskThreads[numOfSection].start();
+    private RotatedRayCasterTask createRayCasterTask(int[] frameBuffer, AABB aabb, AABB visibleAabb,
+                                                     CameraState cameraState, Volume vol, RenderQuality quality,
+                                                     BooleanSupplier cancelled, LongAdder samplesTaken) {
+        //the packets gather their samples from a whole volume in memory, a bricked one is marched ray by ray
+        if (rayCastingEngine == RayCastingEngine.PACKET && rayCastingEngine.isAvailable()
+                && vol instanceof VolumeBuffer) {
+            return new PacketRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, this, (VolumeBuffer) vol,
+                    quality, cancelled, samplesTaken, 0, RotatedRayCasterTask.NUM_OF_TILES);
         }
-
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private static boolean isCorrectNumThreads(int numOfThreads) {
-        return Camera.VIEW_PLANE_WIDTH % numOfThreads == 0;
+        return new RotatedRayCasterTask(frameBuffer, aabb, visibleAabb, cameraState, this, vol, quality,
+                cancelled, samplesTaken, 0, RotatedRayCasterTask.NUM_OF_TILES);
     }
 
 
@@ -288,15 +736,258 @@ public class VolumeRenderer {
         huToColorMap.put(Short.MAX_VALUE, Color.WHITE);
     }
 
-    public boolean addHuToColorMapping(short gteqCeilVal, Color color) {
+    public synchronized boolean addHuToColorMapping(short gteqCeilVal, Color color) {
         Color c = this.huToColorMap.put(gteqCeilVal, color);
+        rebuildClassification();
         return c == null;
     }
 
-    public boolean removeHuToColorMapping(short gteqCeilVal) {
+    public synchronized boolean removeHuToColorMapping(short gteqCeilVal) {
         Color c = this.huToColorMap.remove(gteqCeilVal);
+        rebuildClassification();
         return c == null;
     }
+
+    /**
+     * Narrows the transfer function look-up table to the range of values present in the volume
+     * @param minValue the smallest value in the volume
+     * @param maxValue the largest value in the volume
+     */
+    public synchronized void setValueRange(short minValue, short maxValue) {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        rebuildClassification();
+    }
+
+    /**
+     * Sets the lookup table mapping the gradient magnitudes of the volume being rendered to opacities
+     * @param opacityLUT the table of the same volume, see {@link DataSet#getOpacityLUT()}
+     */
+    public synchronized void setOpacityLUT(double[] opacityLUT) {
+        this.opacityLUT = opacityLUT;
+        rebuildClassification();
+    }
+
+    /**
+     * Sets the macro-cell grid of the volume being rendered, used to skip the cells
+     * the transfer function leaves fully transparent
+     * @param macroCellGrid the grid built from the same volume, or null to sample every step
+     */
+    public synchronized void setMacroCellGrid(MacroCellGrid macroCellGrid) {
+        this.macroCellGrid = macroCellGrid;
+        rebuildClassification();
+    }
+
+    /**
+     * Sets the min/max octree of the volume being rendered, used to clip every ray
+     * to the occupied leaves before it is marched
+     * @param minMaxOctree the octree built from the same volume, or null to fall back to the macro cells
+     */
+    public synchronized void setMinMaxOctree(MinMaxOctree minMaxOctree) {
+        this.minMaxOctree = minMaxOctree;
+        rebuildClassification();
+    }
+
+    /**
+     * Compiles the HU to colour map into a new look-up table, re-derives which macro cells and octree nodes
+     * are empty under it and swaps them in together,
+     * so that rays already marching keep the classification they started with
+     */
+    private void rebuildClassification() {
+        TransferFunction transferFunction = new TransferFunction(huToColorMap, minValue, maxValue);
+        boolean[] emptyCells = macroCellGrid != null ? classifyCells(macroCellGrid, transferFunction) : null;
+        boolean[][] emptyNodes = null;
+        if (minMaxOctree != null) {
+            emptyNodes = minMaxOctree.propagateEmpty(minMaxOctree.getLeaves() == macroCellGrid
+                    ? emptyCells
+                    : classifyCells(minMaxOctree.getLeaves(), transferFunction));
+        }
+        int[] occupiedBounds = emptyCells != null ? macroCellGrid.getOccupiedBounds(emptyCells) : null;
+        this.classification = new Classification(++classificationVersion,
+                transferFunction, opacityLUT, macroCellGrid, emptyCells, occupiedBounds, minMaxOctree, emptyNodes);
+        //the frames cached so far are keyed by the old version, so none of them can be asked for again
+        FrameCache frameCache = this.frameCache;
+        if (frameCache != null) {
+            frameCache.clear();
+        }
+    }
+
+    private static boolean[] classifyCells(MacroCellGrid grid, TransferFunction transferFunction) {
+        boolean[] emptyCells = new boolean[grid.getNumOfCells()];
+        for (int cell = 0; cell < emptyCells.length; cell++) {
+            //widened by one as the interpolated samples are truncated towards zero
+            emptyCells[cell] = transferFunction.isTransparent(grid.getMin(cell) - 1, grid.getMax(cell) + 1);
+        }
+        return emptyCells;
+    }
+
+    public void setEmptySpaceSkipping(EmptySpaceSkipping emptySpaceSkipping) {
+        this.emptySpaceSkipping = emptySpaceSkipping;
+    }
+
+    public EmptySpaceSkipping getEmptySpaceSkipping() {
+        return emptySpaceSkipping;
+    }
+
+    /**
+     * Sets how deep the rays descend into the octree: 0 clips them to single macro cells,
+     * every level above doubles the side of the leaves, trading tighter ranges for fewer nodes visited
+     * @param octreeLeafLevel the level to stop descending at
+     */
+    public void setOctreeLeafLevel(int octreeLeafLevel) {
+        this.octreeLeafLevel = octreeLeafLevel;
+    }
+
+    public int getOctreeLeafLevel() {
+        return octreeLeafLevel;
+    }
+
+    /**
+     * Returns the number of samples classified and shaded in the last frame rendered,
+     * not counting the ones skipped as empty
+     * @return the number of samples
+     */
+    public long getLastFrameSamples() {
+        return lastFrameSamples;
+    }
+
+    public TransferFunction getTransferFunction() {
+        return classification.transferFunction;
+    }
+
+    /**
+     * Sets where the precomputed gradient field of the volume being rendered comes from.
+     * The field is only asked for once precomputed gradients are turned on, and let go of when they are turned off
+     * @param gradientFieldSource returns the gradient field built from the same volume,
+     *                            e.g. {@link DataSet#getGradientField()}, or null if there is none
+     */
+    public synchronized void setGradientField(Supplier<GradientField> gradientFieldSource) {
+        this.gradientFieldSource = gradientFieldSource;
+        this.gradientField = usePrecomputedGradients && gradientFieldSource != null ? gradientFieldSource.get() : null;
+        FrameCache frameCache = this.frameCache;
+        if (frameCache != null) {
+            frameCache.clear();
+        }
+    }
+
+    /**
+     * Samples the precomputed gradient field instead of the per-sample finite differences,
+     * asking for the field first, which may build it
+     * @param usePrecomputedGradients true to sample the gradient field
+     */
+    public synchronized void setUsePrecomputedGradients(boolean usePrecomputedGradients) {
+        this.gradientField = usePrecomputedGradients && gradientFieldSource != null ? gradientFieldSource.get() : null;
+        this.usePrecomputedGradients = usePrecomputedGradients;
+    }
+
+    /**
+     * Sets the accumulated opacity at which a ray stops marching.
+     * 1 only stops a ray at a fully opaque sample
+     * @param opacityThreshold the accumulated opacity in [0..1]
+     */
+    public void setOpacityThreshold(double opacityThreshold) {
+        this.opacityThreshold = opacityThreshold;
+    }
+
+    public double getOpacityThreshold() {
+        return opacityThreshold;
+    }
+
+    public boolean isUsingPrecomputedGradients() {
+        return usePrecomputedGradients && gradientField != null;
+    }
+
+    GradientField getGradientField() {
+        return gradientField;
+    }
+
+    /**
+     * Returns the classification rays should start marching with, kept for the whole ray
+     */
+    Classification getClassification() {
+        return classification;
+    }
+
+    /**
+     * Selects how the rays are cast. The packet engine needs the <code>jdk.incubator.vector</code> module;
+     * without it the scalar one is used instead. The packet engine only skips empty space with the macro cells,
+     * so {@link EmptySpaceSkipping#OCTREE} renders as {@link EmptySpaceSkipping#MACRO_CELLS} with it
+     * @param rayCastingEngine the engine to render the next frames with
+     */
+    public void setRayCastingEngine(RayCastingEngine rayCastingEngine) {
+        if (!rayCastingEngine.isAvailable()) {
+            System.out.println(String.format(ENGINE_UNAVAILABLE_MSG, rayCastingEngine));
+        }
+        this.rayCastingEngine = rayCastingEngine;
+    }
+
+    public RayCastingEngine getRayCastingEngine() {
+        return rayCastingEngine;
+    }
+
+    /**
+     * Sets the pool the frames are rendered on, e.g. to render with a given number of threads
+     * @param renderPool the pool to render the next frames on, or null for the shared one
+     */
+    public void setRenderPool(ForkJoinPool renderPool) {
+        this.renderPool = renderPool == null ? RENDER_POOL : renderPool;
+    }
+
+    public ForkJoinPool getRenderPool() {
+        return renderPool;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Sets the cache of full-quality frames {@link #renderFrame} copies from and adds to
+     * @param frameCache the cache, or null to render every frame
+     */
+    public void setFrameCache(FrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    public FrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * Returns whether the last frame rendered was copied from the frame cache
+     * @return true if no rays were cast for it
+     */
+    public boolean isLastFrameCached() {
+        return lastFrameCached;
+    }
+
+    /**
+     * A compiled transfer function and the opacity lookup table of the volume,
+     * the macro cells and octree nodes that are empty under it and the bounds of the cells that are not
+     */
+    static final class Classification {
+        final long version;
+        final TransferFunction transferFunction;
+        final double[] opacityLUT;
+        final MacroCellGrid macroCellGrid;
+        final boolean[] emptyCells;
+        private final int[] occupiedBounds;
+        private final MinMaxOctree minMaxOctree;
+        private final boolean[][] emptyNodes;
+
+        private Classification(long version, TransferFunction transferFunction, double[] opacityLUT,
+                               MacroCellGrid macroCellGrid, boolean[] emptyCells, int[] occupiedBounds,
+                               MinMaxOctree minMaxOctree, boolean[][] emptyNodes) {
+            this.version = version;
+            this.transferFunction = transferFunction;
+            this.opacityLUT = opacityLUT;
+            this.macroCellGrid = macroCellGrid;
+            this.emptyCells = emptyCells;
+            this.occupiedBounds = occupiedBounds;
+            this.minMaxOctree = minMaxOctree;
+            this.emptyNodes = emptyNodes;
+        }
+    }
 }
 
 
@@ -1,6 +1,10 @@
 package mathutil;
 
 import model.Vector3D;
+import model.VolumeBuffer;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Gradients {
 
@@ -155,6 +159,24 @@ public class Gradients {
         return new Vector3D(gradientX, gradientY, gradientZ);
     }
 
+    public static Vector3D get3DGradientInterpolated3D(double depthInterpolated, double heightInterpolated, double widthInterpolated,
+                                                       VolumeBuffer vol) {
+        int z = (int) depthInterpolated;
+        int y = (int) heightInterpolated;
+        int x = (int) widthInterpolated;
+        float decimalPartDepth = (float) (depthInterpolated - z);
+        float decimalPartHeight = (float) (heightInterpolated - y);
+        float decimalPartWidth = (float) (widthInterpolated - x);
+        int index = vol.index(z, y, x);
+
+        float gradientZ = getLinearGradient(index, z, vol.getDepth(), vol.getStrideZ(), vol.getData(), decimalPartDepth);
+        float gradientY = getLinearGradient(index, y, vol.getHeight(), vol.getStrideY(), vol.getData(), decimalPartHeight);
+        float gradientX = getLinearGradient(index, x, vol.getWidth(), 1, vol.getData(), decimalPartWidth);
+
+
+        return new Vector3D(gradientX, gradientY, gradientZ);
+    }
+
     public static Vector3D get3DGradientNonInterpolated(int z, int y, int x, short[][][] vol) {
 
         float gradientZ = getLinearGradientNonInterpolated(z, y, x, z, vol.length, 1, 0, 0, vol);
@@ -165,6 +187,17 @@ public class Gradients {
         return new Vector3D(gradientX, gradientY, gradientZ);
     }
 
+    public static Vector3D get3DGradientNonInterpolated(int z, int y, int x, VolumeBuffer vol) {
+        int index = vol.index(z, y, x);
+
+        float gradientZ = getLinearGradientNonInterpolated(index, z, vol.getDepth(), vol.getStrideZ(), vol.getData());
+        float gradientY = getLinearGradientNonInterpolated(index, y, vol.getHeight(), vol.getStrideY(), vol.getData());
+        float gradientX = getLinearGradientNonInterpolated(index, x, vol.getWidth(), 1, vol.getData());
+
+
+        return new Vector3D(gradientX, gradientY, gradientZ);
+    }
+
     private static float getLinearGradient(int z, int y, int x, int alongAxis, int axisLength,
                                            int zLo, int zHi,
                                            int yLo, int yHi,
@@ -191,6 +224,40 @@ public class Gradients {
     }
 
 
+    /**
+     * Interpolated gradient along one axis of a contiguous volume,
+     * where the neighbours along the axis are <code>stride</code> samples apart
+     *
+     * @param index      the flat index of the current sample
+     * @param alongAxis  the coordinate of the current sample along the axis
+     * @param axisLength the length of the volume along the axis
+     * @param stride     the distance between neighbours along the axis in the flat data
+     * @param data       the flat volume data
+     * @param decimalPart the fractional offset along the axis
+     * @return
+     */
+    public static float getLinearGradient(int index, int alongAxis, int axisLength, int stride,
+                                           short[] data, float decimalPart) {
+        float x0;
+        float x1;
+
+        if (alongAxis < 2) {
+            //forward difference
+            x0 = data[index] + (data[index] * decimalPart);
+            x1 = data[index] + ((data[index + stride] - data[index]) * decimalPart);
+        } else if (alongAxis == axisLength - 1) {
+            //backward difference
+            x0 = data[index - 2 * stride] + ((data[index - stride] - data[index - 2 * stride]) * decimalPart);
+            x1 = data[index] + (data[index] * decimalPart);
+        } else {
+            //central difference
+            x0 = data[index - 2 * stride] + ((data[index - stride] - data[index - 2 * stride]) * decimalPart);
+            x1 = data[index] + ((data[index + stride] - data[index]) * decimalPart);
+        }
+
+        return x1 - x0;
+    }
+
     private static float getLinearGradient2(int z, int y, int x, int alongAxis, int axisLength,
                                             int zLo, int zHi,
                                             int yLo, int yHi,
@@ -251,6 +318,27 @@ public class Gradients {
         return x1 - x0;
     }
 
+    private static float getLinearGradientNonInterpolated(int index, int alongAxis, int axisLength, int stride,
+                                                          short[] data) {
+        float x0;
+        float x1;
+
+        if (alongAxis < 2) {
+            //forward difference
+            x0 = data[index];
+            x1 = data[index + stride];
+        } else if (alongAxis == axisLength - 1) {
+            //backward difference
+            x0 = data[index - stride];
+            x1 = data[index];
+        } else {
+            //central difference
+            x0 = data[index - stride];
+            x1 = data[index + stride];
+        }
+        return x1 - x0;
+    }
+
     public static short tlerp(double z, double y, double x, short[][][] vol) {
         int depth = vol.length;
         int height = vol[0].length;
@@ -303,6 +391,62 @@ public class Gradients {
 
     }
 
+    /**
+     * Tri-linearly interpolates the contiguous volume at (z, y, x),
+     * reading the eight corners by stride offsets from a single base index
+     */
+    public static short tlerp(double z, double y, double x, VolumeBuffer vol) {
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
+        z = Math.min(Math.max(0, z), depth - 1);
+        y = Math.min(Math.max(0, y), height - 1);
+        x = Math.min(Math.max(0, x), width - 1);
+
+
+        float x0 = (float) Math.max(Math.min(Math.floor(x), width - 1), 0);
+        float y0 = (float) Math.max(Math.min(Math.floor(y), height - 1), 0);
+        float z0 = (float) Math.max(Math.min(Math.floor(z), depth - 1), 0);
+        float x1 = (float) Math.max(Math.min(Math.ceil(x), width - 1), 0);
+        float y1 = (float) Math.max(Math.min(Math.ceil(y), height - 1), 0);
+        float z1 = (float) Math.max(Math.min(Math.ceil(z), depth - 1), 0);
+
+
+        float xPrim = (float) (x - x0);
+        float yPrim = (float) (y - y0);
+        float zPrim = (float) (z - z0);
+
+        short[] data = vol.getData();
+        int close = vol.index((int) z0, (int) y0, (int) x0);
+        int dz = ((int) z1 - (int) z0) * vol.getStrideZ();
+        int dy = ((int) y1 - (int) y0) * vol.getStrideY();
+        int dx = (int) x1 - (int) x0;
+        int far = close + dz;
+
+        // 'corner' colour values
+        short upLeftClose = data[close];
+        short downLeftClose = data[close + dy];
+        short upRightClose = data[close + dx];
+        short downRightClose = data[close + dy + dx];
+
+        short upLeftFar = data[far];
+        short downLeftFar = data[far + dy];
+        short upRightFar = data[far + dx];
+        short downRightFar = data[far + dy + dx];
+
+        float closeInterpolated = blerp(upLeftClose, upRightClose,
+                downLeftClose, downRightClose,
+                xPrim, yPrim);
+        float farInterpolated = blerp(upLeftFar, upRightFar,
+                downLeftFar, downRightFar,
+                xPrim, yPrim);
+
+        float depthInterpolated = lerp(closeInterpolated, farInterpolated, zPrim);
+
+        return (short) depthInterpolated;
+
+    }
+
     public static short[][][] rescaleTricubic(short[][][] vol, int newSizeX, int newSizeY, int newSizeZ) {
         int oldSizeX = vol[0][0].length;
         int oldSizeY = vol[0].length;
@@ -343,6 +487,191 @@ public class Gradients {
 
     }
 
+    /**
+     * Parallel, allocation-free equivalent of {@link #rescaleTricubic(short[][][], int, int, int)},
+     * producing bit-identical samples straight into a contiguous volume.
+     * <p>
+     * The kernel is applied in separable passes: for every output row, the cubic along x is
+     * evaluated once per source slice and kept, then the cubics along y and along z are applied
+     * per output voxel from those kept values. The passes use the same taps and weights as
+     * {@link #interpolateTricubic(short[][][], int, int, int, float, float, float)}.
+     * The output rows are split across the common fork-join pool, since the x pass depends on the output row
+     *
+     * @param vol      the source volume
+     * @param newSizeX the new width
+     * @param newSizeY the new height
+     * @param newSizeZ the new depth
+     * @return the rescaled volume
+     */
+    public static VolumeBuffer rescaleTricubicParallel(short[][][] vol, int newSizeX, int newSizeY, int newSizeZ) {
+        int[] x0s = new int[newSizeX];
+        int[] y0s = new int[newSizeY];
+        int[] z0s = new int[newSizeZ];
+        float[] xPrims = new float[newSizeX];
+        float[] yPrims = new float[newSizeY];
+        float[] zPrims = new float[newSizeZ];
+        setCubicTaps(newSizeX, vol[0][0].length, x0s, xPrims);
+        setCubicTaps(newSizeY, vol[0].length, y0s, yPrims);
+        setCubicTaps(newSizeZ, vol.length, z0s, zPrims);
+
+        VolumeBuffer rescaled = new VolumeBuffer(newSizeZ, newSizeY, newSizeX);
+        ForkJoinPool.commonPool().invoke(new TricubicRowsTask(
+                vol, rescaled, x0s, xPrims, y0s, yPrims, z0s, zPrims, 0, newSizeY));
+        return rescaled;
+    }
+
+    /**
+     * Sets the floor source index and the fractional offset for every output index along one axis
+     */
+    private static void setCubicTaps(int newSize, int oldSize, int[] starts, float[] fractions) {
+        for (int i = 0; i < newSize; i++) {
+            float prim = ((float) i / (float) (newSize - 1)) * (oldSize - 1);
+            float start = (float) Math.max(Math.min(Math.floor(prim), oldSize - 1), 0);
+            starts[i] = (int) start;
+            fractions[i] = prim - start;
+        }
+    }
+
+    /**
+     * Rescales a range of output rows of {@link #rescaleTricubicParallel(short[][][], int, int, int)},
+     * splitting in halves until the range is small enough to run directly
+     */
+    private static class TricubicRowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private static final int ROWS_PER_TASK = 4;
+
+        private final short[][][] vol;
+        private final VolumeBuffer rescaled;
+        private final int[] x0s;
+        private final float[] xPrims;
+        private final int[] y0s;
+        private final float[] yPrims;
+        private final int[] z0s;
+        private final float[] zPrims;
+        private final int startRow;
+        private final int endRow;
+
+        TricubicRowsTask(short[][][] vol, VolumeBuffer rescaled,
+                         int[] x0s, float[] xPrims, int[] y0s, float[] yPrims, int[] z0s, float[] zPrims,
+                         int startRow, int endRow) {
+            this.vol = vol;
+            this.rescaled = rescaled;
+            this.x0s = x0s;
+            this.xPrims = xPrims;
+            this.y0s = y0s;
+            this.yPrims = yPrims;
+            this.z0s = z0s;
+            this.zPrims = zPrims;
+            this.startRow = startRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - startRow > ROWS_PER_TASK) {
+                int mid = (startRow + endRow) >>> 1;
+                invokeAll(
+                        new TricubicRowsTask(vol, rescaled, x0s, xPrims, y0s, yPrims, z0s, zPrims, startRow, mid),
+                        new TricubicRowsTask(vol, rescaled, x0s, xPrims, y0s, yPrims, z0s, zPrims, mid, endRow)
+                );
+                return;
+            }
+            int newSizeX = x0s.length;
+            //four taps along y for every source slice and output column, reused for every row in this range
+            float[] taps = new float[vol.length * newSizeX * 4];
+            for (int y = startRow; y < endRow; y++) {
+                for (int slice = 0; slice < vol.length; slice++) {
+                    for (int x = 0; x < newSizeX; x++) {
+                        setRowTaps(vol[slice], x0s[x], y0s[y], yPrims[y], taps, (slice * newSizeX + x) * 4);
+                    }
+                }
+                for (int z = 0; z < z0s.length; z++) {
+                    for (int x = 0; x < newSizeX; x++) {
+                        rescaled.set(z, y, x, (short) interpolateAcrossSlices(taps, newSizeX, x, y0s[y], z0s[z],
+                                xPrims[x], zPrims[z]));
+                    }
+                }
+            }
+        }
+
+        /**
+         * The x pass: the four row values that {@link #interpolateBicubic(short[][], int, int, float, float)}
+         * combines, including its extrapolation at the edges
+         */
+        private static void setRowTaps(short[][] mat, int curX, int curY, float xPrim, float[] taps, int offset) {
+            float p0;
+            float p1;
+            float p2;
+            float p3;
+
+            if (curY == 0) {
+                p1 = interpolateCubic(mat[curY], curX, xPrim);
+                p2 = interpolateCubic(mat[curY + 1], curX, xPrim);
+                p0 = 2 * p1 - p2;
+                p3 = interpolateCubic(mat[curY + 2], curX, xPrim);
+            } else if (curY == mat.length - 1) {
+                p1 = interpolateCubic(mat[curY], curX, xPrim);
+                p2 = interpolateCubic(mat[curY - 1], curX, xPrim);
+                p0 = 2 * p1 - p2;
+                p3 = interpolateCubic(mat[curY - 2], curX, xPrim);
+            } else {
+                p0 = interpolateCubic(mat[curY - 1], curX, xPrim);
+                p1 = interpolateCubic(mat[curY], curX, xPrim);
+                p2 = interpolateCubic(mat[curY + 1], curX, xPrim);
+                if (curY + 2 > mat.length - 1) {
+                    p3 = 2 * p2 - p1;
+                } else {
+                    p3 = interpolateCubic(mat[curY + 2], curX, xPrim);
+                }
+            }
+            taps[offset] = p0;
+            taps[offset + 1] = p1;
+            taps[offset + 2] = p2;
+            taps[offset + 3] = p3;
+        }
+
+        /**
+         * The y and z passes: the slice selection of
+         * {@link #interpolateTricubic(short[][][], int, int, int, float, float, float)},
+         * where the fourth inner slice is taken at <code>curY + 2</code>
+         */
+        private static float interpolateAcrossSlices(float[] taps, int newSizeX, int x, int curY, int curZ,
+                                                     float xPrim, float yPrim) {
+            int depth = taps.length / (newSizeX * 4);
+            float p0;
+            float p1;
+            float p2;
+            float p3;
+            if (curZ == 0) {
+                p1 = interpolateSlice(taps, newSizeX, curZ, x, yPrim);
+                p2 = interpolateSlice(taps, newSizeX, curZ + 1, x, yPrim);
+                p0 = 2 * p1 - p2;
+                p3 = interpolateSlice(taps, newSizeX, curZ + 2, x, yPrim);
+            } else if (curZ == depth - 1) {
+                p1 = interpolateSlice(taps, newSizeX, curZ, x, yPrim);
+                p2 = interpolateSlice(taps, newSizeX, curZ - 1, x, yPrim);
+                p0 = 2 * p2 - p1;
+                p3 = interpolateSlice(taps, newSizeX, curZ - 2, x, yPrim);
+            } else {
+                p0 = interpolateSlice(taps, newSizeX, curZ - 1, x, yPrim);
+                p1 = interpolateSlice(taps, newSizeX, curZ, x, yPrim);
+                p2 = interpolateSlice(taps, newSizeX, curZ + 1, x, yPrim);
+                if (curZ + 2 > depth - 1) {
+                    p3 = 2 * p2 - p1;
+                } else {
+                    p3 = interpolateSlice(taps, newSizeX, curY + 2, x, yPrim);
+                }
+            }
+            return interpolateCubic(p0, p1, p2, p3, xPrim);
+        }
+
+        private static float interpolateSlice(float[] taps, int newSizeX, int slice, int x, float yPrim) {
+            int offset = (slice * newSizeX + x) * 4;
+            return interpolateCubic(taps[offset], taps[offset + 1], taps[offset + 2], taps[offset + 3], yPrim);
+        }
+    }
+
     public static short interpolateTricubic(float x, float y, float z, short[][][] vol) {
         int width = vol[0][0].length;
         int height = vol[0].length;
@@ -360,15 +689,10 @@ public class Gradients {
     }
 
     public static float interpolateCubic(float[] arr, float xPrim) {
-        float p0;
-        float p1;
-        float p2;
-        float p3;
-        p0 = arr[0];
-        p1 = arr[1];
-        p2 = arr[2];
-        p3 = arr[3];
+        return interpolateCubic(arr[0], arr[1], arr[2], arr[3], xPrim);
+    }
 
+    public static float interpolateCubic(float p0, float p1, float p2, float p3, float xPrim) {
         return (float) (p1 + 0.5 * xPrim * (p2 - p0 + xPrim * (2.0 * p0 - 5.0 * p1 + 4.0 * p2 - p3 + xPrim * (3.0 * (p1 - p2) + p3 - p0))));
     }
 
@@ -430,7 +754,7 @@ public class Gradients {
 
         }
 
-        return interpolateCubic(new float[]{p0, p1, p2, p3}, xPrim);
+        return interpolateCubic(p0, p1, p2, p3, xPrim);
     }
 
     public static float interpolateBicubic(short[][] mat, int curX, int curY, float xPrim, float yPrim) {
@@ -461,7 +785,7 @@ public class Gradients {
             }
         }
 
-        return interpolateCubic(new float[]{p0, p1, p2, p3}, yPrim);
+        return interpolateCubic(p0, p1, p2, p3, yPrim);
     }
 
     public static double mapToNewRange(double input, double minInput, double maxInput, double minOutput, double maxOutput, int deciPrec) {
@@ -6,6 +6,7 @@ import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import model.Algo;
 import model.DataSet;
+import model.Histogram;
 import model.Vector3D;
 
 import java.io.*;
@@ -229,7 +230,7 @@ public class ImageUtil {
 
 
 
-    private static Image volumeRender(short[][][] vol, Vector3D light, Vector3D eye) {
+    private static Image volumeRender(short[][][] vol, double[] opacityLUT, Vector3D light, Vector3D eye) {
         int height = vol[0].length;
         int depth = vol.length;
         int width = vol[0][0].length;
@@ -248,7 +249,7 @@ public class ImageUtil {
 
                         Color colorAppliedReflectionModel = Reflections.applyReflectionModel(light, eye, intersectionPoint,
                                 0.4f, 0.65f,
-                                gradient, materialColor);
+                                gradient, materialColor, opacityLUT);
                         pixelWriter.setColor(x, y, colorAppliedReflectionModel);
                         break;
                     } else if (z == depth - 1) {
@@ -267,7 +268,7 @@ public class ImageUtil {
         Image updatedImage;
 
 
-        updatedImage = volumeRender(dataSet.getBytes(), light, eye);
+        updatedImage = volumeRender(dataSet.getBytes(), dataSet.getOpacityLUT(), light, eye);
         if (resizeAlgo == Algo.BILINEAR) {
             updatedImage = rescaleBilinearColour(newX, newY, updatedImage);
         }
@@ -276,6 +277,23 @@ public class ImageUtil {
         return updatedImage;
     }
 
+    /**
+     * Writes a line of <code>value,count</code> for every value from the smallest to the largest of the volume
+     * @param histogram the histogram of the volume
+     */
+    public static void writeHistogram(Histogram histogram) {
+        File histoFile = new File("resources/histoData.txt");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(histoFile.toPath()), StandardCharsets.UTF_8))) {
+            for (int value = histogram.getMin(); value <= histogram.getMax(); value++) {
+                writer.append(String.valueOf(value)).append(",").append(String.valueOf(histogram.getCount(value)))
+                        .append("\n");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void writeHistogram(short[][][] vol) {
         File histoFile = new File("resources/histoData.txt");
         HashMap<Short, Integer> map = new HashMap<>();
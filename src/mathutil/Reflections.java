@@ -1,7 +1,6 @@
 package mathutil;
 
 import javafx.scene.paint.Color;
-import model.DataSet;
 import model.Vector3D;
 
 public class Reflections {
@@ -12,7 +11,8 @@ public class Reflections {
 
     public static Color applyReflectionModel(Vector3D light, Vector3D eye, Vector3D intersectionPoint,
                                              float shininessCoeff, float reflectionConstant,
-                                             Vector3D gradient, Color intersectionPointColor) {
+                                             Vector3D gradient, Color intersectionPointColor,
+                                             double[] opacityLUT) {
         Vector3D n = gradient.normalize();
         Vector3D toLight = light.sub(intersectionPoint);
         Vector3D fromLight = intersectionPoint.sub(light);
@@ -38,7 +38,7 @@ public class Reflections {
 //        red = intersectionPointColor.getRed() * cosTheta;
 //        green = intersectionPointColor.getGreen() * cosTheta;
 //        blue = intersectionPointColor.getBlue() * cosTheta;
-        opacity = DataSet.getOpacityLUT()[(int) gradient.magnitude()];
+        opacity = opacityLUT[(int) gradient.magnitude()];
 
         return new Color(red, green, blue, opacity);
 
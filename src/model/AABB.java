@@ -96,27 +96,52 @@ public class AABB {
      *         the farther one is the second) or null if no intersection
      */
     public Vector3D[] getIntersections(Ray ray, float minDist, float maxDist) {
-        Vector3D invDir = new Vector3D(
-                1f / ray.getDirection().getX(),
-                1f / ray.getDirection().getY(),
-                1f / ray.getDirection().getZ()
-        );
-
-        boolean signDirX = invDir.getX() < 0;
-        boolean signDirY = invDir.getY() < 0;
-        boolean signDirZ = invDir.getZ() < 0;
+        double[] distances = new double[2];
+        if (!getIntersectionDistances(ray.getX(), ray.getY(), ray.getZ(),
+                ray.getDirection().getX(), ray.getDirection().getY(), ray.getDirection().getZ(),
+                minDist, maxDist, distances)) {
+            return null;
+        }
+        return new Vector3D[]{
+                ray.getPointAtDistance(distances[0]),
+                ray.getPointAtDistance(distances[1])
+        };
+    }
 
-        Vector3D boundingBox = signDirX ? max : min;
-        double tMin = (boundingBox.getX() - ray.getX()) * invDir.getX();
-        boundingBox = signDirX ? min : max;
-        double tMax = (boundingBox.getX() - ray.getX()) * invDir.getX();
-        boundingBox = signDirY ? max : min;
-        double tYMin = (boundingBox.getY() - ray.getY()) * invDir.getY();
-        boundingBox = signDirY ? min : max;
-        double tYMax = (boundingBox.getY() - ray.getY()) * invDir.getY();
+    /**
+     * Calculates the distances along the given ray at which it enters and leaves the box,
+     * the same way as {@link #getIntersections(Ray, float, float)},
+     * but on primitives and without allocating, for the per-pixel ray setup
+     *
+     * @param originX    x of the ray origin
+     * @param originY    y of the ray origin
+     * @param originZ    z of the ray origin
+     * @param directionX x of the normalised ray direction
+     * @param directionY y of the normalised ray direction
+     * @param directionZ z of the normalised ray direction
+     * @param minDist    minimum distance
+     * @param maxDist    maximum distance
+     * @param distances  receives the entry distance in [0] and the exit distance in [1]
+     * @return true if the ray intersects the box within the interval, false otherwise
+     */
+    public boolean getIntersectionDistances(double originX, double originY, double originZ,
+                                            double directionX, double directionY, double directionZ,
+                                            float minDist, float maxDist, double[] distances) {
+        double invDirX = 1f / directionX;
+        double invDirY = 1f / directionY;
+        double invDirZ = 1f / directionZ;
+
+        boolean signDirX = invDirX < 0;
+        boolean signDirY = invDirY < 0;
+        boolean signDirZ = invDirZ < 0;
+
+        double tMin = ((signDirX ? max : min).getX() - originX) * invDirX;
+        double tMax = ((signDirX ? min : max).getX() - originX) * invDirX;
+        double tYMin = ((signDirY ? max : min).getY() - originY) * invDirY;
+        double tYMax = ((signDirY ? min : max).getY() - originY) * invDirY;
 
         if ((tMin > tYMax) || (tYMin > tMax)) {
-            return null;
+            return false;
         }
         if (tYMin > tMin) {
             tMin = tYMin;
@@ -125,13 +150,11 @@ public class AABB {
             tMax = tYMax;
         }
 
-        boundingBox = signDirZ ? max : min;
-        double tZMin = (boundingBox.getZ() - ray.getZ()) * invDir.getZ();
-        boundingBox = signDirZ ? min : max;
-        double tZMax = (boundingBox.getZ() - ray.getZ()) * invDir.getZ();
+        double tZMin = ((signDirZ ? max : min).getZ() - originZ) * invDirZ;
+        double tZMax = ((signDirZ ? min : max).getZ() - originZ) * invDirZ;
 
         if ((tMin > tZMax) || (tZMin > tMax)) {
-            return null;
+            return false;
         }
         if (tZMin > tMin) {
             tMin = tZMin;
@@ -140,12 +163,19 @@ public class AABB {
             tMax = tZMax;
         }
         if ((tMin < maxDist) && (tMax > minDist)) {
-            return new Vector3D[]{
-                    ray.getPointAtDistance((float) tMin),
-                    ray.getPointAtDistance((float) tMax)
-            };
+            distances[0] = (float) tMin;
+            distances[1] = (float) tMax;
+            return true;
         }
-        return null;
+        return false;
+    }
+
+    public Vector3D getMax() {
+        return max;
+    }
+
+    public Vector3D getMin() {
+        return min;
     }
 
 }
@@ -0,0 +1,576 @@
+package model;
+
+import mathutil.Gradients;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class represents a volume too large for the heap, stored in a file as cubic bricks
+ * of {@link #getBrickSize()}<sup>3</sup> voxels and paged in from a memory-mapped view of it a brick at a time.
+ * Every brick is stored with an apron of the {@link #APRON_BEFORE} voxels before it and the {@link #APRON_AFTER}
+ * after it along every axis, so the tri-linear samples and the finite-difference gradients of any point
+ * whose lower corner voxel lies in the brick are read from the brick alone and match the ones of the whole volume.
+ * The bricks loaded are kept in a least recently used cache of a fixed number of bricks, and every miss
+ * also loads the next bricks along the view direction on a background thread, ahead of the rays reaching them
+ *
+ * @author Kasper Krawczyk
+ */
+public class BrickedVolume implements Volume, Closeable {
+
+    /**
+     * "BRK1", the first int of every bricked volume file
+     */
+    public static final int MAGIC = 0x42524b31;
+    public static final int HEADER_BYTES = 64;
+    public static final int DEFAULT_BRICK_SIZE = 32;
+    public static final int DEFAULT_CACHE_BRICKS = 512;
+    /**
+     * The voxels stored before a brick along every axis: the central differences reach two voxels back
+     */
+    public static final int APRON_BEFORE = 2;
+    /**
+     * The voxels stored after a brick along every axis: the samples and the differences reach one voxel on
+     */
+    public static final int APRON_AFTER = 1;
+    /**
+     * How many bricks along the view direction a miss loads ahead
+     */
+    public static final int PREFETCH_DEPTH = 2;
+    public static final String FORMAT_ERR_MSG = "Error: %s is not a bricked volume file";
+    public static final String BRICK_SIZE_ERR_MSG = "The brick size has to be a positive multiple of "
+            + MacroCellGrid.CELL_SIZE;
+    public static final String CONVERTED_MSG = "Bricked %s into %s: %dx%dx%d voxels, %d bricks of %d^3, in %.0f ms";
+    public static final String OPENED_MSG = "Opened %s: %dx%dx%d voxels, %d bricks of %d^3, caching %d (%.1f MB)";
+    public static final String STATS_MSG = "Brick cache: %d of %d bricks, %d hits, %d misses, %d prefetched";
+
+    private final File file;
+    private final FileChannel channel;
+    private final int depth;
+    private final int height;
+    private final int width;
+    private final int brickSize;
+    private final int bricksZ;
+    private final int bricksY;
+    private final int bricksX;
+    private final int recordShorts;
+    private final short minValue;
+    private final short maxValue;
+    private final float maxGradientMagnitude;
+    private final long id = VolumeBuffer.nextId();
+    /**
+     * The mapped rows of bricks, every one holding the bricks sharing their z and y, mapped on first use
+     */
+    private final AtomicReferenceArray<ShortBuffer> rows;
+
+    private final int maxBricks;
+    private final LinkedHashMap<Integer, Brick> bricks;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final Set<Integer> pending = ConcurrentHashMap.newKeySet();
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "brick-prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The step from a brick to the next one along the view direction, in bricks along z, y and x
+     */
+    private volatile int[] prefetchStep = {0, 0, 0};
+
+    private BrickedVolume(File file, FileChannel channel, ByteBuffer header, int maxBricks) {
+        this.file = file;
+        this.channel = channel;
+        this.depth = header.getInt(4);
+        this.height = header.getInt(8);
+        this.width = header.getInt(12);
+        this.brickSize = header.getInt(16);
+        this.minValue = header.getShort(20);
+        this.maxValue = header.getShort(22);
+        this.maxGradientMagnitude = header.getFloat(24);
+        this.bricksZ = (depth + brickSize - 1) / brickSize;
+        this.bricksY = (height + brickSize - 1) / brickSize;
+        this.bricksX = (width + brickSize - 1) / brickSize;
+        this.recordShorts = getRecordShorts(brickSize);
+        this.rows = new AtomicReferenceArray<>(bricksZ * bricksY);
+        this.maxBricks = maxBricks;
+        this.bricks = new LinkedHashMap<Integer, Brick>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Brick> eldest) {
+                return size() > BrickedVolume.this.maxBricks;
+            }
+        };
+    }
+
+    /**
+     * Opens a bricked volume file, mapping it but reading no brick yet
+     * @param file      the file written by {@link #write} or {@link #convertRaw}
+     * @param maxBricks how many bricks to keep in memory at most
+     * @return the volume
+     * @throws IOException if the file cannot be read or is not a bricked volume
+     */
+    public static BrickedVolume open(File file, int maxBricks) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                throw new EOFException(String.format(FORMAT_ERR_MSG, file));
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(String.format(FORMAT_ERR_MSG, file));
+            }
+            BrickedVolume volume = new BrickedVolume(file, channel, header, maxBricks);
+            long expectedBytes = HEADER_BYTES + (long) volume.getNumOfBricks() * volume.recordShorts * Short.BYTES;
+            if (channel.size() < expectedBytes) {
+                throw new EOFException(String.format(FORMAT_ERR_MSG, file));
+            }
+            System.out.println(String.format(OPENED_MSG, file, volume.depth, volume.height, volume.width,
+                    volume.getNumOfBricks(), volume.brickSize, maxBricks,
+                    (double) maxBricks * volume.recordShorts * Short.BYTES / (1024.0 * 1024.0)));
+            return volume;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static BrickedVolume open(File file) throws IOException {
+        return open(file, DEFAULT_CACHE_BRICKS);
+    }
+
+    /**
+     * Bricks a volume already in memory into a file
+     * @param vol       the volume to brick
+     * @param file      the file to write
+     * @param brickSize the side of the bricks in voxels, a multiple of the macro cell size
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(VolumeBuffer vol, File file, int brickSize) throws IOException {
+        write(vol.getDepth(), vol.getHeight(), vol.getWidth(), vol::get, "volume " + vol.getId(), file, brickSize);
+    }
+
+    /**
+     * Bricks a raw CT scan file of little-endian shorts into a file without reading it into the heap,
+     * the slices memory-mapped and read a brick at a time.
+     * The voxels keep the axes <code>DataSet</code> gives them: the rows of the slices run along the depth
+     * of the volume, the slices up its height, but they are not rescaled
+     * @param raw       the raw scan file
+     * @param size      the number of slices
+     * @param height    the number of rows of every slice
+     * @param width     the number of columns of every slice
+     * @param file      the file to write
+     * @param brickSize the side of the bricks in voxels, a multiple of the macro cell size
+     * @throws IOException if the raw file is too short or a file cannot be read or written
+     */
+    public static void convertRaw(File raw, int size, int height, int width, File file, int brickSize)
+            throws IOException {
+        long sliceBytes = (long) height * width * Short.BYTES;
+        try (FileChannel in = FileChannel.open(raw.toPath(), StandardOpenOption.READ)) {
+            if (in.size() < sliceBytes * size) {
+                throw new EOFException(String.format(DataSet.FILE_TOO_SHORT_ERR_MSG, raw, in.size(),
+                        sliceBytes * size));
+            }
+            ShortBuffer[] slices = new ShortBuffer[size];
+            for (int slice = 0; slice < size; slice++) {
+                slices[slice] = in.map(FileChannel.MapMode.READ_ONLY, slice * sliceBytes, sliceBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asShortBuffer();
+            }
+            write(height, size, width, (z, y, x) -> slices[y].get(z * width + x), raw.toString(), file, brickSize);
+        }
+    }
+
+    private static void write(int depth, int height, int width, VoxelReader reader, String source, File file,
+                              int brickSize) throws IOException {
+        if (brickSize <= 0 || brickSize % MacroCellGrid.CELL_SIZE != 0) {
+            throw new IllegalArgumentException(BRICK_SIZE_ERR_MSG);
+        }
+        long start = System.nanoTime();
+        int bricksZ = (depth + brickSize - 1) / brickSize;
+        int bricksY = (height + brickSize - 1) / brickSize;
+        int bricksX = (width + brickSize - 1) / brickSize;
+        ByteBuffer record = ByteBuffer.allocate(getRecordShorts(brickSize) * Short.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        float maxGradientMagnitude = Float.MIN_VALUE;
+
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = HEADER_BYTES;
+            for (int brickZ = 0; brickZ < bricksZ; brickZ++) {
+                for (int brickY = 0; brickY < bricksY; brickY++) {
+                    for (int brickX = 0; brickX < bricksX; brickX++) {
+                        int originZ = Math.max(0, brickZ * brickSize - APRON_BEFORE);
+                        int originY = Math.max(0, brickY * brickSize - APRON_BEFORE);
+                        int originX = Math.max(0, brickX * brickSize - APRON_BEFORE);
+                        VolumeBuffer brick = new VolumeBuffer(
+                                Math.min(depth, (brickZ + 1) * brickSize + APRON_AFTER) - originZ,
+                                Math.min(height, (brickY + 1) * brickSize + APRON_AFTER) - originY,
+                                Math.min(width, (brickX + 1) * brickSize + APRON_AFTER) - originX);
+                        for (int z = 0; z < brick.getDepth(); z++) {
+                            for (int y = 0; y < brick.getHeight(); y++) {
+                                for (int x = 0; x < brick.getWidth(); x++) {
+                                    brick.set(z, y, x, reader.get(originZ + z, originY + y, originX + x));
+                                }
+                            }
+                        }
+
+                        //the apron is counted with the brick it belongs to
+                        int endZ = Math.min(depth, (brickZ + 1) * brickSize) - originZ;
+                        int endY = Math.min(height, (brickY + 1) * brickSize) - originY;
+                        int endX = Math.min(width, (brickX + 1) * brickSize) - originX;
+                        for (int z = brickZ * brickSize - originZ; z < endZ; z++) {
+                            for (int y = brickY * brickSize - originY; y < endY; y++) {
+                                for (int x = brickX * brickSize - originX; x < endX; x++) {
+                                    short value = brick.get(z, y, x);
+                                    if (value < min) min = value;
+                                    if (value > max) max = value;
+                                    //the apron gives every voxel the neighbours it has in the whole volume
+                                    maxGradientMagnitude = Math.max(maxGradientMagnitude,
+                                            (float) Gradients.get3DGradientNonInterpolated(z, y, x, brick).magnitude());
+                                }
+                            }
+                        }
+
+                        record.clear();
+                        record.asShortBuffer().put(brick.getData());
+                        while (record.hasRemaining()) {
+                            position += out.write(record, position);
+                        }
+                    }
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(0, MAGIC)
+                    .putInt(4, depth)
+                    .putInt(8, height)
+                    .putInt(12, width)
+                    .putInt(16, brickSize)
+                    .putShort(20, min)
+                    .putShort(22, max)
+                    .putFloat(24, maxGradientMagnitude);
+            long headerPosition = 0;
+            while (header.hasRemaining()) {
+                headerPosition += out.write(header, headerPosition);
+            }
+        }
+
+        System.out.println(String.format(CONVERTED_MSG, source, file, depth, height, width,
+                bricksZ * bricksY * bricksX, brickSize, (System.nanoTime() - start) / 1e6));
+    }
+
+    private static int getRecordShorts(int brickSize) {
+        int side = brickSize + APRON_BEFORE + APRON_AFTER;
+        return side * side * side;
+    }
+
+    /**
+     * Returns the brick holding the voxel at [z][y][x], from the cache or paged in from the file.
+     * A miss also queues the next bricks along the view direction to be loaded in the background
+     * @param z the depth of the voxel, within the volume
+     * @param y the height of the voxel
+     * @param x the width of the voxel
+     * @return the brick
+     */
+    public Brick getBrick(int z, int y, int x) {
+        int brickZ = z / brickSize;
+        int brickY = y / brickSize;
+        int brickX = x / brickSize;
+        int index = (brickZ * bricksY + brickY) * bricksX + brickX;
+        Brick brick;
+        synchronized (bricks) {
+            brick = bricks.get(index);
+        }
+        if (brick != null) {
+            hits.increment();
+            return brick;
+        }
+        misses.increment();
+        //loaded outside the lock, so the other workers are not held up; a brick loaded twice is harmless
+        brick = loadBrick(brickZ, brickY, brickX);
+        synchronized (bricks) {
+            bricks.put(index, brick);
+        }
+        prefetch(brickZ, brickY, brickX);
+        return brick;
+    }
+
+    /**
+     * Queues the bricks after the given one along the view direction that are neither cached nor queued yet
+     */
+    private void prefetch(int brickZ, int brickY, int brickX) {
+        int[] step = prefetchStep;
+        if (step[0] == 0 && step[1] == 0 && step[2] == 0) {
+            return;
+        }
+        for (int ahead = 1; ahead <= PREFETCH_DEPTH; ahead++) {
+            int nextZ = brickZ + step[0] * ahead;
+            int nextY = brickY + step[1] * ahead;
+            int nextX = brickX + step[2] * ahead;
+            if (nextZ < 0 || nextZ >= bricksZ || nextY < 0 || nextY >= bricksY || nextX < 0 || nextX >= bricksX) {
+                return;
+            }
+            int index = (nextZ * bricksY + nextY) * bricksX + nextX;
+            synchronized (bricks) {
+                if (bricks.containsKey(index)) {
+                    continue;
+                }
+            }
+            if (!pending.add(index)) {
+                continue;
+            }
+            prefetcher.execute(() -> {
+                try {
+                    Brick brick = loadBrick(nextZ, nextY, nextX);
+                    synchronized (bricks) {
+                        bricks.putIfAbsent(index, brick);
+                    }
+                    prefetches.increment();
+                } finally {
+                    pending.remove(index);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets the direction the rays of the next frames are cast in, which decides the bricks loaded ahead
+     * @param directionZ the direction along the depth of the volume
+     * @param directionY along its height
+     * @param directionX along its width
+     */
+    public void setViewDirection(double directionZ, double directionY, double directionX) {
+        double largest = Math.max(Math.abs(directionZ), Math.max(Math.abs(directionY), Math.abs(directionX)));
+        if (largest == 0) {
+            prefetchStep = new int[]{0, 0, 0};
+            return;
+        }
+        //a step along every axis the direction moves along at least half as fast as along its main one
+        prefetchStep = new int[]{
+                (int) Math.round(directionZ / largest),
+                (int) Math.round(directionY / largest),
+                (int) Math.round(directionX / largest)
+        };
+    }
+
+    /**
+     * Reads a brick from the mapped file, bypassing the cache
+     */
+    Brick loadBrick(int brickZ, int brickY, int brickX) {
+        int originZ = Math.max(0, brickZ * brickSize - APRON_BEFORE);
+        int originY = Math.max(0, brickY * brickSize - APRON_BEFORE);
+        int originX = Math.max(0, brickX * brickSize - APRON_BEFORE);
+        VolumeBuffer buffer = new VolumeBuffer(
+                Math.min(depth, (brickZ + 1) * brickSize + APRON_AFTER) - originZ,
+                Math.min(height, (brickY + 1) * brickSize + APRON_AFTER) - originY,
+                Math.min(width, (brickX + 1) * brickSize + APRON_AFTER) - originX);
+        //absolute bulk reads leave the position of the shared view alone, so the workers can read it at once
+        getRow(brickZ, brickY).get(brickX * recordShorts, buffer.getData());
+        return new Brick(buffer, originZ, originY, originX,
+                brickZ * brickSize, brickY * brickSize, brickX * brickSize, brickSize);
+    }
+
+    private ShortBuffer getRow(int brickZ, int brickY) {
+        int row = brickZ * bricksY + brickY;
+        ShortBuffer mapped = rows.get(row);
+        if (mapped == null) {
+            long rowShorts = (long) bricksX * recordShorts;
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                                HEADER_BYTES + row * rowShorts * Short.BYTES, rowShorts * Short.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asShortBuffer();
+            } catch (IOException e) {
+                throw new IllegalStateException(String.format(FORMAT_ERR_MSG, file), e);
+            }
+            rows.compareAndSet(row, null, mapped);
+            mapped = rows.get(row);
+        }
+        return mapped;
+    }
+
+    /**
+     * Drops every cached brick and resets the counters
+     */
+    public void clearCache() {
+        synchronized (bricks) {
+            bricks.clear();
+        }
+        hits.reset();
+        misses.reset();
+        prefetches.reset();
+    }
+
+    /**
+     * Stops the prefetching and closes the file; the bricks already handed out stay valid
+     */
+    @Override
+    public void close() throws IOException {
+        prefetcher.shutdownNow();
+        channel.close();
+    }
+
+    public int getNumOfCachedBricks() {
+        synchronized (bricks) {
+            return bricks.size();
+        }
+    }
+
+    public int getMaxBricks() {
+        return maxBricks;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getPrefetches() {
+        return prefetches.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(STATS_MSG, getNumOfCachedBricks(), maxBricks, getHits(), getMisses(), getPrefetches());
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    public int getBrickSize() {
+        return brickSize;
+    }
+
+    public int getBricksZ() {
+        return bricksZ;
+    }
+
+    public int getBricksY() {
+        return bricksY;
+    }
+
+    public int getBricksX() {
+        return bricksX;
+    }
+
+    public int getNumOfBricks() {
+        return bricksZ * bricksY * bricksX;
+    }
+
+    public short getMinValue() {
+        return minValue;
+    }
+
+    public short getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Returns the largest finite-difference gradient magnitude of the volume, which the opacities are scaled by
+     */
+    public float getMaxGradientMagnitude() {
+        return maxGradientMagnitude;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the voxel at [z][y][x] of the volume being bricked
+     */
+    private interface VoxelReader {
+        short get(int z, int y, int x);
+    }
+
+    /**
+     * A brick paged in: its voxels and its apron in a small volume of their own,
+     * whose voxel [0][0][0] is the voxel at the origin of the brick in the whole volume
+     */
+    public static final class Brick {
+        private final VolumeBuffer buffer;
+        private final int originZ;
+        private final int originY;
+        private final int originX;
+        private final int startZ;
+        private final int startY;
+        private final int startX;
+        private final int brickSize;
+
+        private Brick(VolumeBuffer buffer, int originZ, int originY, int originX,
+                      int startZ, int startY, int startX, int brickSize) {
+            this.buffer = buffer;
+            this.originZ = originZ;
+            this.originY = originY;
+            this.originX = originX;
+            this.startZ = startZ;
+            this.startY = startY;
+            this.startX = startX;
+            this.brickSize = brickSize;
+        }
+
+        /**
+         * Checks the voxel at [z][y][x] of the whole volume is one of the brick's own, not of its apron
+         */
+        public boolean contains(int z, int y, int x) {
+            return z >= startZ && z < startZ + brickSize
+                    && y >= startY && y < startY + brickSize
+                    && x >= startX && x < startX + brickSize;
+        }
+
+        public VolumeBuffer getBuffer() {
+            return buffer;
+        }
+
+        public int getOriginZ() {
+            return originZ;
+        }
+
+        public int getOriginY() {
+            return originY;
+        }
+
+        public int getOriginX() {
+            return originX;
+        }
+    }
+}
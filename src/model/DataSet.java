@@ -7,27 +7,54 @@ import javafx.scene.paint.Color;
 import mathutil.Gradients;
 
 import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 /**
  * This class represents a dataset created from
  * a raw byte CT scan file, encoded as a float[][][] of [0..1] bounded values.
+ * Only what the ray caster needs is computed up front; the grey-scale copy, the jagged copy, the gradient magnitudes,
+ * the gradient field and the histogram are derived from the volume on first access
+ * and may be dropped again under memory pressure
  *
  * @author Kasper Krawczyk
  */
 public class DataSet {
 
-
-    public static double[] opacityLUT;
     public static final String FILE_NOT_FOUND_ERR_MSG = "Error: The %s file is not in the working directory";
+    public static final String FILE_TOO_SHORT_ERR_MSG = "Error: The %s file is %d bytes long, expected at least %d";
+    public static final String LOAD_THROUGHPUT_MSG = "Loaded %s: %.1f MB in %.0f ms (%.1f MB/s)";
+    public static final String GRADIENT_FIELD_MSG = "Precomputed gradient field: %.1f MB";
     public static final String WORK_DIR_MSG = "Working Directory = " + System.getProperty("user.dir");
+    public static final int RESCALED_DEPTH = 256;
+    public static final int RESCALED_HEIGHT = 226;
+    public static final int RESCALED_WIDTH = 256;
 
     public final int size;
     public final int height;
     public final int width;
 
-    private final float[][][] grey;
-    private short[][][] bytes;
-    private float[][][] gradients;
+    private final DerivedVolume<float[][][]> grey = new DerivedVolume<>("grey-scale slices", this::parseGrey);
+    private final DerivedVolume<float[][][]> gradients =
+            new DerivedVolume<>("gradient magnitudes", this::computeGradientMagnitudes);
+    private final DerivedVolume<Histogram> histogram =
+            new DerivedVolume<>("histogram", () -> Histogram.build(getVolume()));
+    private final DerivedVolume<short[][][]> bytes = new DerivedVolume<>("jagged volume", () -> getVolume().toArray());
+    private final DerivedVolume<GradientField> gradientField =
+            new DerivedVolume<>("gradient field", this::buildGradientField);
+    private VolumeBuffer volume;
+    private MacroCellGrid macroCellGrid;
+    private MinMaxOctree minMaxOctree;
+    private double[] opacityLUT;
+    /**
+     * The cache file the gradient field can be read back from instead of being built, null if there is none
+     */
+    private File cacheFile;
+    private byte[] sourceHash;
 
     private final String path;
 
@@ -40,7 +67,9 @@ public class DataSet {
 
 
     /**
-     * Creates a dataset from the provided raw byte CT scan file
+     * Creates a dataset from the provided raw byte CT scan file.
+     * The rescaled volume and what is derived from it are read back from the {@link VolumeCache}
+     * if the file has been loaded before, and written to it otherwise
      * @param path
      * @param size
      * @param height
@@ -52,23 +81,133 @@ public class DataSet {
         this.size = size;
         this.height = height;
         this.width = width;
-        bytes = new short[this.getHeight()][256][this.getWidth()]; //allocate the memory - note this is fixed for this data set
-        grey = new float[this.getHeight()][256][this.getWidth()];
+        int[] source = {size, height, width};
+        int[] dimensions = {RESCALED_DEPTH, RESCALED_HEIGHT, RESCALED_WIDTH};
+        byte[] hash = null;
+        File cacheFile = null;
         try {
+            if (VolumeCache.isEnabled()) {
+                hash = VolumeCache.getSourceHash(file);
+                cacheFile = VolumeCache.getCacheFile(hash, source, dimensions);
+                VolumeCache.Entry cached = VolumeCache.read(cacheFile, hash, source, dimensions);
+                if (cached != null) {
+                    this.cacheFile = cacheFile;
+                    this.sourceHash = hash;
+                    this.restore(cached);
+                    return;
+                }
+            }
             this.parseBytes();
 
-        }  catch (IOException ioe) {
+        } catch (EOFException eofe) {
+            System.out.println(eofe.getMessage());
+            return;
+        } catch (IOException ioe) {
             System.out.println(String.format(FILE_NOT_FOUND_ERR_MSG, path));
             System.out.println(WORK_DIR_MSG);
             return;
         }
-        this.set3DGradients(getBytes());
-        this.setOpacityLUT();
-        this.parseGrey();
+        this.deriveVolumes();
+        if (cacheFile != null && this.writeCache(cacheFile, hash, getGradientField())) {
+            //the gradient field was only built to be cached; it is read back once the renderer asks for it
+            this.cacheFile = cacheFile;
+            this.sourceHash = hash;
+            this.gradientField.evict();
+        }
+    }
+
+    /**
+     * Creates a dataset from slices already in memory, laid out as they would be read from a raw file,
+     * e.g. a synthetic volume for the benchmarks
+     * @param name  the name to report the dataset by, in place of its path
+     * @param slices the CT values as [height][size][width]
+     */
+    public DataSet(String name, short[][][] slices) {
+        this.path = name;
+        this.file = new File(name);
+        this.size = slices[0].length;
+        this.height = slices.length;
+        this.width = slices[0][0].length;
+        for (short[][] slice : slices) {
+            for (short[] row : slice) {
+                for (short value : row) {
+                    if (value < minVolValue) minVolValue = value;
+                    if (value > maxVolValue) maxVolValue = value;
+                }
+            }
+        }
+        volume = Gradients.rescaleTricubicParallel(slices, RESCALED_DEPTH, RESCALED_HEIGHT, RESCALED_WIDTH);
+        this.deriveVolumes();
+    }
+
+    /**
+     * Computes everything the renderer needs from the rescaled volume:
+     * the range of the gradients, the acceleration structures and the opacity lookup table
+     */
+    private void deriveVolumes() {
+        this.set3DGradients(getVolume());
+        this.buildAccelerationStructures();
+    }
+
+    /**
+     * Reads back or builds the gradient field the renderer samples when precomputed gradients are turned on
+     */
+    private GradientField buildGradientField() {
+        if (cacheFile != null) {
+            GradientField cached = VolumeCache.readGradientField(cacheFile, sourceHash,
+                    new int[]{size, height, width}, new int[]{RESCALED_DEPTH, RESCALED_HEIGHT, RESCALED_WIDTH});
+            if (cached != null) {
+                return cached;
+            }
+        }
+        GradientField field = GradientField.build(getVolume());
+        System.out.println(String.format(GRADIENT_FIELD_MSG, field.getSizeInBytes() / (1024.0 * 1024.0)));
+        //the cache the field could not be read back from is written again
+        if (cacheFile != null && !this.writeCache(cacheFile, sourceHash, field)) {
+            cacheFile = null;
+        }
+        return field;
+    }
+
+    /**
+     * Writes the rescaled volume and what is derived from it to a cache file
+     * @param cacheFile     the cache file
+     * @param hash          the hash of the raw file
+     * @param gradientField the gradient field of the volume
+     * @return true if the cache was written
+     */
+    private boolean writeCache(File cacheFile, byte[] hash, GradientField gradientField) {
+        return VolumeCache.write(cacheFile, hash, new int[]{size, height, width}, new VolumeCache.Entry(volume,
+                gradientField, getHistogram(),
+                minVolValue, maxVolValue, minVolumeGradientMagnitude, maxVolumeGradientMagnitude));
+    }
+
+    /**
+     * Takes the rescaled volume and what is derived from it from a cache file,
+     * so that only the acceleration structures are left to build; the gradient field is read once it is asked for
+     * @param cached the cached dataset
+     */
+    private void restore(VolumeCache.Entry cached) {
+        this.volume = cached.getVolume();
+        this.histogram.set(cached.getHistogram());
+        this.minVolValue = cached.getMinValue();
+        this.maxVolValue = cached.getMaxValue();
+        this.minVolumeGradientMagnitude = cached.getMinGradientMagnitude();
+        this.maxVolumeGradientMagnitude = cached.getMaxGradientMagnitude();
+        this.buildAccelerationStructures();
+    }
+
+    /**
+     * Builds the empty-space skipping structures and the opacity lookup table of the rescaled volume
+     */
+    private void buildAccelerationStructures() {
+        this.macroCellGrid = MacroCellGrid.build(getVolume());
+        this.minMaxOctree = MinMaxOctree.build(macroCellGrid);
+        this.opacityLUT = createOpacityLUT(this.maxVolumeGradientMagnitude);
         System.out.println("----------DATASET----------");
-        System.out.println("WIDTH - X axis = " + bytes[0][0].length);
-        System.out.println("HEIGHT - Y axis = " + bytes[0].length);
-        System.out.println("DEPTH - Z axis = " + bytes.length);
+        System.out.println("WIDTH - X axis = " + volume.getWidth());
+        System.out.println("HEIGHT - Y axis = " + volume.getHeight());
+        System.out.println("DEPTH - Z axis = " + volume.getDepth());
     }
 
     /**
@@ -103,12 +242,13 @@ public class DataSet {
         int width = (int) writableImage.getWidth();
         int height = (int) writableImage.getHeight();
         float val;
+        float[][][] grey = getGrey();
 
         PixelWriter pixelWriter = writableImage.getPixelWriter();
 
         for(int y = 0; y < height; y++) {
             for(int x = 0; x < width; x++) {
-                val = getGrey()[sliceNum][y][x];
+                val = grey[sliceNum][y][x];
                 Color color = Color.color(val, val, val);
 
                 pixelWriter.setColor(x, y, color);
@@ -118,92 +258,169 @@ public class DataSet {
     }
 
     /**
-     * Reads in byte data from the dataset
+     * Reads in byte data from the dataset.
+     * The file is memory-mapped and read as little-endian shorts a row at a time,
+     * with the min and max updated in the same pass
      * @throws IOException is thrown in case of IO failure
      */
     private void parseBytes() throws IOException {
-        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long start = System.nanoTime();
+        int width = this.getWidth();
+        long expectedBytes = (long) this.getSize() * this.getHeight() * width * Short.BYTES;
+        short[][][] temp = new short[this.getHeight()][this.getSize()][width]; //allocate the memory - note this is fixed for this data set
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < expectedBytes) {
+                throw new EOFException(String.format(FILE_TOO_SHORT_ERR_MSG, path, channel.size(), expectedBytes));
+            }
+            ShortBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, expectedBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN)
+                    .asShortBuffer();
+
+            short min = this.getMinVolValue();
+            short max = this.getMaxVolValue();
+            //loop through the data reading it in, one row of the slice at a time
+            for (int k = 0; k < this.getSize(); k++) {
+                for (int j = 0; j < this.getHeight(); j++) {
+                    short[] row = temp[j][k];
+                    in.get(row, 0, width);
+                    for (int i = 0; i < width; i++) {
+                        if (row[i] < min) min = row[i]; //update the minimum
+                        if (row[i] > max) max = row[i]; //update the maximum
+                    }
+                }
+            }
+            this.setMinVolValue(min);
+            this.setMaxVolValue(max);
+        }
 
-        short read; //value read in
-        int b1;
-        int b2;
-        short[][][] temp = new short[this.getHeight()][this.getSize()][this.getWidth()]; //allocate the memory - note this is fixed for this data set
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = expectedBytes / (1024.0 * 1024.0);
+        System.out.println(String.format(LOAD_THROUGHPUT_MSG, path, megabytes, seconds * 1000, megabytes / seconds));
+
+        volume = Gradients.rescaleTricubicParallel(temp, RESCALED_DEPTH, RESCALED_HEIGHT, RESCALED_WIDTH);
+    }
 
-        //loop through the data reading it in
-        for (int k = 0; k < this.getSize(); k++) {
-            for (int j = 0; j < this.getHeight(); j++) {
-                for (int i = 0; i < this.getWidth(); i++) {
 
-                    b1 = ((int) in.readByte()) & 0xff; //the 0xff
-                    b2 = ((int) in.readByte()) & 0xff;
-                    read = (short) ((b2 << 8) | b1); //and swizzle the bytes around
-                    //read = Short.reverseBytes((short) in.readUnsignedByte());
-                    if (read < this.getMinVolValue()) this.setMinVolValue(read); //update the minimum
-                    if (read > this.getMaxVolValue()) this.setMaxVolValue(read); //update the maximum
-                    temp[j][k][i] = read;
+    /**
+     * Sets the min and the max of the gradient magnitudes of the 3D volume data
+     * and the overall min and max of the volume, one slice per task.
+     * The magnitudes themselves are not kept; see {@link #getGradients()}
+     * @param vol the volume data
+     */
+    public void set3DGradients(VolumeBuffer vol) {
+        int depth = vol.getDepth();
+        float[] minMagnitudes = new float[depth];
+        float[] maxMagnitudes = new float[depth];
+        short[] minValues = new short[depth];
+        short[] maxValues = new short[depth];
+
+        IntStream.range(0, depth).parallel().forEach(z -> {
+            float minMagnitude = Float.MAX_VALUE;
+            float maxMagnitude = Float.MIN_VALUE;
+            short minValue = Short.MAX_VALUE;
+            short maxValue = Short.MIN_VALUE;
+            for (int y = 0; y < vol.getHeight(); y++) {
+                for (int x = 0; x < vol.getWidth(); x++) {
+                    float magnitude = (float) Gradients.get3DGradientNonInterpolated(z, y, x, vol).magnitude();
+                    minMagnitude = Math.min(magnitude, minMagnitude);
+                    maxMagnitude = Math.max(magnitude, maxMagnitude);
+                    minValue = (short) Math.min(vol.get(z, y, x), minValue);
+                    maxValue = (short) Math.max(vol.get(z, y, x), maxValue);
                 }
             }
+            minMagnitudes[z] = minMagnitude;
+            maxMagnitudes[z] = maxMagnitude;
+            minValues[z] = minValue;
+            maxValues[z] = maxValue;
+        });
+
+        for (int z = 0; z < depth; z++) {
+            this.minVolumeGradientMagnitude = Math.min(minMagnitudes[z], this.minVolumeGradientMagnitude);
+            this.maxVolumeGradientMagnitude = Math.max(maxMagnitudes[z], this.maxVolumeGradientMagnitude);
+            this.minVolValue = (short) Math.min(minValues[z], this.minVolValue);
+            this.maxVolValue = (short) Math.max(maxValues[z], this.maxVolValue);
         }
-        bytes = Gradients.rescaleTricubic(temp, 256, 226, 256);
     }
 
-
     /**
-     * Sets gradients of the 3D volume data as a 3D float array,
-     * along with the min and the max of the gradients and the overall min and max of the volume.
-     * @param vol the volume data
-     * @return Object[] {3D matrix, min gradient, max gradient, min overall value, max overall value}
+     * Computes the gradient magnitude of every voxel as a 3D float array, one slice per task
      */
-    public void set3DGradients(short[][][] vol) {
-        int height = vol[0].length;
-        int depth = vol.length;
-        int width = vol[0][0].length;
-        float[][][] mat = new float[depth][height][width];
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                for (int z = 0; z < depth; z++) {
+    private float[][][] computeGradientMagnitudes() {
+        VolumeBuffer vol = getVolume();
+        float[][][] mat = new float[vol.getDepth()][vol.getHeight()][vol.getWidth()];
+        IntStream.range(0, vol.getDepth()).parallel().forEach(z -> {
+            for (int y = 0; y < vol.getHeight(); y++) {
+                for (int x = 0; x < vol.getWidth(); x++) {
                     mat[z][y][x] = (float) Gradients.get3DGradientNonInterpolated(z, y, x, vol).magnitude();
-                    this.minVolumeGradientMagnitude = Math.min(mat[z][y][x], this.minVolumeGradientMagnitude);
-                    this.maxVolumeGradientMagnitude = Math.max(mat[z][y][x], this.maxVolumeGradientMagnitude);
-
-                    this.minVolValue = (short) Math.min(vol[z][y][x], this.minVolValue);
-                    this.maxVolValue = (short) Math.max(vol[z][y][x], this.maxVolValue);
-
                 }
-
             }
-        }
-        gradients = mat;
+        });
+        return mat;
     }
 
-    private void setOpacityLUT() {
-        opacityLUT = new double[(int) this.maxVolumeGradientMagnitude + 1];
+    /**
+     * Creates the lookup table mapping gradient magnitudes to opacities, scaled by the largest magnitude of a volume,
+     * e.g. for a bricked volume rendered without a dataset
+     * @param maxVolumeGradientMagnitude the largest finite-difference gradient magnitude of the volume
+     * @return the opacity of every whole gradient magnitude up to the largest one
+     */
+    public static double[] createOpacityLUT(float maxVolumeGradientMagnitude) {
+        double[] opacityLUT = new double[(int) maxVolumeGradientMagnitude + 1];
 
         for (int i = 0; i < opacityLUT.length; i++) {
-            opacityLUT[i] = i / this.maxVolumeGradientMagnitude;
+            opacityLUT[i] = i / maxVolumeGradientMagnitude;
         }
+        return opacityLUT;
     }
 
     /**
-     * Populates the 3d array of normalised floating-point values representing the grey-scale dataset
+     * Populates the 3d array of normalised floating-point values representing the grey-scale dataset,
+     * one row of slices per task
      */
-    private void parseGrey(){
-        for (int k = 0; k < this.getSize(); k++) {
-            for (int j = 0; j < this.getHeight(); j++) {
+    private float[][][] parseGrey(){
+        float[][][] slices = new float[this.getHeight()][256][this.getWidth()];
+        IntStream.range(0, this.getHeight()).parallel().forEach(j -> {
+            for (int k = 0; k < this.getSize(); k++) {
                 for (int i = 0; i < this.getWidth(); i++) {
-                    getGrey()[j][k][i] = normalize(getBytes()[j][k][i], this.getMinVolValue(), this.getMaxVolValue());
+                    slices[j][k][i] = normalize(volume.get(j, k, i), this.getMinVolValue(), this.getMaxVolValue());
                 }
             }
-        }
+        });
+        return slices;
+    }
+
+    /**
+     * Drops the grey-scale slices, the jagged copy, the gradient magnitudes, the gradient field and the histogram,
+     * e.g. once the last handle on a shared dataset is closed; they are computed again on their next access
+     */
+    public void evictDerivedVolumes() {
+        grey.evict();
+        bytes.evict();
+        gradients.evict();
+        gradientField.evict();
+        histogram.evict();
     }
 
+    /**
+     * Returns the volume as a jagged [z][y][x] array.
+     * The copy is built from the contiguous volume on first access,
+     * so that the callers which still expect <code>short[][][]</code> keep working
+     * @return the jagged copy of the volume
+     */
     public short[][][] getBytes() {
-        return bytes;
+        return bytes.get();
     }
 
+    public VolumeBuffer getVolume() {
+        return volume;
+    }
+
+    /**
+     * Returns the grey-scale slices as [height][256][width], computed on first access
+     */
     public float[][][] getGrey() {
-        return grey;
+        return grey.get();
     }
 
     public short getMinVolValue() {
@@ -238,8 +455,40 @@ public class DataSet {
         return file;
     }
 
+    /**
+     * Returns the gradient magnitude of every voxel as [z][y][x], computed on first access
+     */
     public float[][][] getGradients() {
-        return gradients;
+        return gradients.get();
+    }
+
+    /**
+     * Returns the number of voxels holding every value of the volume, computed on first access
+     */
+    public Histogram getHistogram() {
+        return histogram.get();
+    }
+
+    /**
+     * Returns the histogram once it has been computed on the common pool, without waiting for it
+     */
+    public CompletableFuture<Histogram> getHistogramAsync() {
+        return histogram.getAsync();
+    }
+
+    /**
+     * Returns the packed gradient of every voxel, built on first access
+     */
+    public GradientField getGradientField() {
+        return gradientField.get();
+    }
+
+    public MacroCellGrid getMacroCellGrid() {
+        return macroCellGrid;
+    }
+
+    public MinMaxOctree getMinMaxOctree() {
+        return minMaxOctree;
     }
 
     public String getPath() {
@@ -254,7 +503,10 @@ public class DataSet {
         return maxVolumeGradientMagnitude;
     }
 
-    public static double[] getOpacityLUT() {
+    /**
+     * Returns the lookup table mapping the gradient magnitudes of this dataset to opacities
+     */
+    public double[] getOpacityLUT() {
         return opacityLUT;
     }
 }
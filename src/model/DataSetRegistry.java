@@ -0,0 +1,213 @@
+package model;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class shares the datasets loaded in the process between everything that shows or renders them,
+ * e.g. two tabs and a headless render of the same scan.
+ * Datasets are keyed by the canonical path of their file and their dimensions and handed out as
+ * reference-counted {@link Handle}s; a dataset is dropped, along with what was derived from it,
+ * once its last handle is closed.
+ * A dataset asked for while it is being loaded is waited for rather than loaded a second time.
+ * The datasets handed out are shared, so their holders must treat them as read-only
+ *
+ * @author Kasper Krawczyk
+ */
+public class DataSetRegistry {
+
+    public static final String SHARED_MSG = "Sharing the loaded %s (%d handles)";
+    public static final String RELEASED_MSG = "Released %s, no handles left";
+    public static final String LOAD_ERR_MSG = "Error: The %s dataset could not be loaded";
+
+    private static final DataSetRegistry SHARED = new DataSetRegistry();
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * Returns the registry shared by the whole process
+     */
+    public static DataSetRegistry getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Hands out the dataset of the file with the given dimensions, loading it unless it is loaded already.
+     * If another thread is loading it, this waits for that load instead of starting another one
+     * @param path   the raw CT scan file
+     * @param size   the number of slices
+     * @param height the number of rows of every slice
+     * @param width  the number of columns of every slice
+     * @return a handle on the dataset, to be closed once it is no longer needed
+     * @throws IllegalStateException if the dataset could not be loaded
+     */
+    public Handle acquire(String path, int size, int height, int width) {
+        Key key = new Key(path, size, height, width);
+        Entry entry;
+        boolean loading = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+                loading = true;
+            }
+            entry.references++;
+        }
+
+        if (loading) {
+            try {
+                load(key, entry, path, size, height, width);
+            } catch (Error e) {
+                release(key, entry);
+                throw e;
+            }
+        } else if (entry.dataSet.isDone()) {
+            System.out.println(String.format(SHARED_MSG, path, entry.references));
+        }
+        try {
+            return new Handle(key, entry, entry.dataSet.join());
+        } catch (CompletionException e) {
+            release(key, entry);
+            throw new IllegalStateException(String.format(LOAD_ERR_MSG, path), e.getCause());
+        }
+    }
+
+    private void load(Key key, Entry entry, String path, int size, int height, int width) {
+        DataSet dataSet;
+        try {
+            dataSet = new DataSet(path, size, height, width);
+        } catch (Throwable t) {
+            //e.g. an OutOfMemoryError; the threads waiting for the dataset are woken up before it is rethrown
+            forget(key, entry);
+            entry.dataSet.completeExceptionally(t);
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            return;
+        }
+        if (dataSet.getVolume() == null) {
+            //the dataset reports why it could not be read; a later request may succeed, so it is not kept
+            forget(key, entry);
+            entry.dataSet.completeExceptionally(new IOException(String.format(LOAD_ERR_MSG, path)));
+            return;
+        }
+        entry.dataSet.complete(dataSet);
+    }
+
+    /**
+     * Takes a failed entry out of the registry, so the next request starts a new load
+     */
+    private void forget(Key key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private void release(Key key, Entry entry) {
+        boolean released;
+        synchronized (entries) {
+            released = --entry.references == 0 && entries.remove(key, entry);
+        }
+        if (released) {
+            //anything still holding the dataset itself computes them again on their next access
+            if (entry.dataSet.isDone() && !entry.dataSet.isCompletedExceptionally()) {
+                entry.dataSet.join().evictDerivedVolumes();
+            }
+            System.out.println(String.format(RELEASED_MSG, key.path));
+        }
+    }
+
+    /**
+     * Returns the number of datasets loaded or being loaded
+     */
+    public int getNumOfDataSets() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * A shared dataset and the number of handles on it
+     */
+    private static final class Entry {
+        private final CompletableFuture<DataSet> dataSet = new CompletableFuture<>();
+        private int references;
+    }
+
+    /**
+     * The canonical path of a dataset and its dimensions
+     */
+    private static final class Key {
+        private final String path;
+        private final int[] dimensions;
+
+        private Key(String path, int size, int height, int width) {
+            this.path = canonicalise(path);
+            this.dimensions = new int[]{size, height, width};
+        }
+
+        private static String canonicalise(String path) {
+            File file = new File(path);
+            try {
+                return file.getCanonicalPath();
+            } catch (IOException e) {
+                return file.getAbsolutePath();
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && path.equals(((Key) other).path)
+                    && Arrays.equals(dimensions, ((Key) other).dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * path.hashCode() + Arrays.hashCode(dimensions);
+        }
+    }
+
+    /**
+     * A reference to a shared dataset, which keeps it loaded until it is closed
+     */
+    public final class Handle implements AutoCloseable {
+        private final Key key;
+        private final Entry entry;
+        private final DataSet dataSet;
+        private boolean closed;
+
+        private Handle(Key key, Entry entry, DataSet dataSet) {
+            this.key = key;
+            this.entry = entry;
+            this.dataSet = dataSet;
+        }
+
+        /**
+         * Returns the shared dataset, which must not be modified
+         */
+        public DataSet getDataSet() {
+            return dataSet;
+        }
+
+        public VolumeBuffer getVolume() {
+            return dataSet.getVolume();
+        }
+
+        /**
+         * Gives up this reference to the dataset; closing a handle twice has no further effect
+         */
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(key, entry);
+            }
+        }
+    }
+}
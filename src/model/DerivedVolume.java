@@ -0,0 +1,81 @@
+package model;
+
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * This class represents a volume derived from a dataset, e.g. its grey-scale copy, computed on first access
+ * and then kept through a soft reference, so the garbage collector can drop it under memory pressure
+ * and the next access computes it again. It can also be evicted explicitly.
+ * Every derived volume is computed under its own lock, so different ones can be computed at once
+ *
+ * @param <T> the type of the derived volume
+ * @author Kasper Krawczyk
+ */
+public class DerivedVolume<T> {
+
+    public static final String COMPUTED_MSG = "Computed the %s in %.0f ms";
+
+    private final String name;
+    private final Supplier<T> supplier;
+    private SoftReference<T> reference;
+
+    /**
+     * @param name     the name to report the volume by
+     * @param supplier computes the volume, called again every time it has been dropped
+     */
+    public DerivedVolume(String name, Supplier<T> supplier) {
+        this.name = name;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Returns the volume, computing it if it has not been yet or has been dropped since
+     * @return the volume
+     */
+    public synchronized T get() {
+        T value = reference != null ? reference.get() : null;
+        if (value == null) {
+            long start = System.nanoTime();
+            value = supplier.get();
+            reference = new SoftReference<>(value);
+            System.out.println(String.format(COMPUTED_MSG, name, (System.nanoTime() - start) / 1e6));
+        }
+        return value;
+    }
+
+    /**
+     * Keeps a volume computed elsewhere, e.g. read back from a cache, as if it had just been computed
+     * @param value the volume
+     */
+    public synchronized void set(T value) {
+        reference = new SoftReference<>(value);
+    }
+
+    /**
+     * Computes the volume on the common pool, unless it is already there
+     * @return the volume, once it is there
+     */
+    public CompletableFuture<T> getAsync() {
+        return CompletableFuture.supplyAsync(this::get);
+    }
+
+    /**
+     * Returns whether the volume is there, without computing it
+     */
+    public synchronized boolean isComputed() {
+        return reference != null && reference.get() != null;
+    }
+
+    /**
+     * Drops the volume, so the next access computes it again
+     */
+    public synchronized void evict() {
+        reference = null;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
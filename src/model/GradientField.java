@@ -0,0 +1,240 @@
+package model;
+
+import mathutil.Gradients;
+
+import java.util.stream.IntStream;
+
+/**
+ * This class represents the gradients of a volume precomputed at every voxel,
+ * packed into one int per voxel: a 16-bit octahedral unit normal in the high half
+ * and a 16-bit quantised magnitude in the low half.
+ * The field is sampled with tri-linear interpolation in the same [z][y][x] coordinates as the volume.
+ *
+ * @author Kasper Krawczyk
+ */
+public class GradientField {
+
+    private static final int OCT_LEVELS = 0xff;
+    private static final int MAGNITUDE_LEVELS = 0xffff;
+    /**
+     * Unit normals for every 16-bit octahedral code, three floats each
+     */
+    private static final float[] OCT_NORMALS = buildOctNormals();
+
+    private final int[] packed;
+    private final int depth;
+    private final int height;
+    private final int width;
+    private final int strideZ;
+    private final int strideY;
+    private final float magnitudeScale;
+
+    private GradientField(int[] packed, int depth, int height, int width, float magnitudeScale) {
+        this.packed = packed;
+        this.depth = depth;
+        this.height = height;
+        this.width = width;
+        this.strideY = width;
+        this.strideZ = height * width;
+        this.magnitudeScale = magnitudeScale;
+    }
+
+    /**
+     * Wraps a field packed before, e.g. read back from the cache on disk
+     * @param packed         the packed gradients, as returned by {@link #getPacked()}
+     * @param magnitudeScale the magnitude of one quantisation step, as returned by {@link #getMagnitudeScale()}
+     * @return the gradient field
+     */
+    static GradientField fromPacked(int[] packed, int depth, int height, int width, float magnitudeScale) {
+        return new GradientField(packed, depth, height, width, magnitudeScale);
+    }
+
+    /**
+     * Computes the central-difference gradient at every voxel of the volume and packs it.
+     * The slices are processed in parallel, in two passes: the first finds the largest magnitude
+     * to quantise against, the second packs the normals and the magnitudes
+     * @param vol the volume to compute the gradients of
+     * @return the packed gradient field
+     */
+    public static GradientField build(VolumeBuffer vol) {
+        int depth = vol.getDepth();
+        int height = vol.getHeight();
+        int width = vol.getWidth();
+        double maxMagnitude = IntStream.range(0, depth).parallel()
+                .mapToDouble(z -> {
+                    double max = 0;
+                    for (int y = 0; y < height; y++) {
+                        for (int x = 0; x < width; x++) {
+                            max = Math.max(max, Gradients.get3DGradientNonInterpolated(z, y, x, vol).magnitude());
+                        }
+                    }
+                    return max;
+                })
+                .max()
+                .orElse(0);
+
+        int[] packed = new int[vol.getLength()];
+        float magnitudeScale = maxMagnitude > 0 ? (float) maxMagnitude / MAGNITUDE_LEVELS : 0;
+        GradientField field = new GradientField(packed, depth, height, width, magnitudeScale);
+
+        IntStream.range(0, depth).parallel().forEach(z -> {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    Vector3D gradient = Gradients.get3DGradientNonInterpolated(z, y, x, vol);
+                    double magnitude = gradient.magnitude();
+                    if (magnitude > 0) {
+                        int quantisedMagnitude = (int) Math.round(magnitude / field.magnitudeScale);
+                        packed[vol.index(z, y, x)] = (encodeOctahedral(gradient) << 16) | quantisedMagnitude;
+                    }
+                }
+            }
+        });
+        return field;
+    }
+
+    /**
+     * Returns the tri-linearly interpolated gradient at (z, y, x),
+     * as the interpolated unit normal scaled by the interpolated magnitude
+     * @param z the floating-point depth coordinate
+     * @param y the floating-point height coordinate
+     * @param x the floating-point width coordinate
+     * @return the gradient, or the null vector in a homogeneous region
+     */
+    public Vector3D sample(double z, double y, double x) {
+        float[] gradient = new float[3];
+        sample(z, y, x, gradient);
+        return new Vector3D(gradient[0], gradient[1], gradient[2]);
+    }
+
+    /**
+     * Writes the tri-linearly interpolated gradient at (z, y, x) to the given array, without allocating
+     * @param z the floating-point depth coordinate
+     * @param y the floating-point height coordinate
+     * @param x the floating-point width coordinate
+     * @param gradient the array to write the x, y and z components of the gradient to,
+     *                 all zero in a homogeneous region
+     */
+    public void sample(double z, double y, double x, float[] gradient) {
+        z = Math.min(Math.max(0, z), depth - 1);
+        y = Math.min(Math.max(0, y), height - 1);
+        x = Math.min(Math.max(0, x), width - 1);
+        int z0 = (int) z;
+        int y0 = (int) y;
+        int x0 = (int) x;
+        float zPrim = (float) (z - z0);
+        float yPrim = (float) (y - y0);
+        float xPrim = (float) (x - x0);
+        int dz = z0 < depth - 1 ? strideZ : 0;
+        int dy = y0 < height - 1 ? strideY : 0;
+        int dx = x0 < width - 1 ? 1 : 0;
+        int base = z0 * strideZ + y0 * strideY + x0;
+
+        float normalX = 0;
+        float normalY = 0;
+        float normalZ = 0;
+        float magnitude = 0;
+        //accumulate the eight corners, weighted by their tri-linear coefficients
+        for (int corner = 0; corner < 8; corner++) {
+            int index = base;
+            float weight = 1;
+            weight *= (corner & 4) == 0 ? 1 - zPrim : zPrim;
+            weight *= (corner & 2) == 0 ? 1 - yPrim : yPrim;
+            weight *= (corner & 1) == 0 ? 1 - xPrim : xPrim;
+            index += (corner & 4) == 0 ? 0 : dz;
+            index += (corner & 2) == 0 ? 0 : dy;
+            index += (corner & 1) == 0 ? 0 : dx;
+            int voxel = packed[index];
+            int normal = (voxel >>> 16) * 3;
+            float weightedMagnitude = weight * (voxel & MAGNITUDE_LEVELS);
+            normalX += weightedMagnitude * OCT_NORMALS[normal];
+            normalY += weightedMagnitude * OCT_NORMALS[normal + 1];
+            normalZ += weightedMagnitude * OCT_NORMALS[normal + 2];
+            magnitude += weightedMagnitude;
+        }
+
+        double length = Math.sqrt(normalX * normalX + normalY * normalY + normalZ * normalZ);
+        if (length == 0) {
+            gradient[0] = 0;
+            gradient[1] = 0;
+            gradient[2] = 0;
+            return;
+        }
+        double scale = magnitude * magnitudeScale / length;
+
+        gradient[0] = (float) (normalX * scale);
+        gradient[1] = (float) (normalY * scale);
+        gradient[2] = (float) (normalZ * scale);
+    }
+
+    /**
+     * Returns the heap footprint of the packed field
+     * @return the size in bytes
+     */
+    public long getSizeInBytes() {
+        return (long) packed.length * Integer.BYTES;
+    }
+
+    public float getMaxMagnitude() {
+        return magnitudeScale * MAGNITUDE_LEVELS;
+    }
+
+    float getMagnitudeScale() {
+        return magnitudeScale;
+    }
+
+    int[] getPacked() {
+        return packed;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Encodes a non-null vector as two 8-bit coordinates on the unfolded octahedron
+     * @param v the vector to encode
+     * @return the 16-bit code
+     */
+    private static int encodeOctahedral(Vector3D v) {
+        double l1 = Math.abs(v.getX()) + Math.abs(v.getY()) + Math.abs(v.getZ());
+        double u = v.getX() / l1;
+        double w = v.getY() / l1;
+        if (v.getZ() < 0) {
+            double foldedU = (1 - Math.abs(w)) * Math.signum(u);
+            double foldedW = (1 - Math.abs(u)) * Math.signum(w);
+            u = foldedU;
+            w = foldedW;
+        }
+        int codeU = (int) Math.round((u * 0.5 + 0.5) * OCT_LEVELS);
+        int codeW = (int) Math.round((w * 0.5 + 0.5) * OCT_LEVELS);
+        return (codeU << 8) | codeW;
+    }
+
+    private static float[] buildOctNormals() {
+        float[] octNormals = new float[(1 << 16) * 3];
+        for (int code = 0; code < 1 << 16; code++) {
+            double u = (code >>> 8) / (double) OCT_LEVELS * 2 - 1;
+            double w = (code & OCT_LEVELS) / (double) OCT_LEVELS * 2 - 1;
+            double z = 1 - Math.abs(u) - Math.abs(w);
+            if (z < 0) {
+                double unfoldedU = (1 - Math.abs(w)) * Math.signum(u);
+                double unfoldedW = (1 - Math.abs(u)) * Math.signum(w);
+                u = unfoldedU;
+                w = unfoldedW;
+            }
+            double length = Math.sqrt(u * u + w * w + z * z);
+            octNormals[code * 3] = (float) (u / length);
+            octNormals[code * 3 + 1] = (float) (w / length);
+            octNormals[code * 3 + 2] = (float) (z / length);
+        }
+        return octNormals;
+    }
+}
@@ -0,0 +1,80 @@
+package model;
+
+import java.util.stream.IntStream;
+
+/**
+ * This class represents the number of voxels of a volume holding every value
+ * from its smallest to its largest one
+ *
+ * @author Kasper Krawczyk
+ */
+public class Histogram {
+
+    private static final int NUM_OF_VALUES = 1 << Short.SIZE;
+
+    private final int[] counts;
+    private final short min;
+
+    Histogram(int[] counts, short min) {
+        this.counts = counts;
+        this.min = min;
+    }
+
+    /**
+     * Counts the voxels of every value, a run of slices per core
+     * @param vol the volume to count the values of
+     * @return the histogram
+     */
+    public static Histogram build(VolumeBuffer vol) {
+        short[] data = vol.getData();
+        int chunks = Math.max(1, Math.min(vol.getDepth(), Runtime.getRuntime().availableProcessors()));
+        int[] all = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    int[] counts = new int[NUM_OF_VALUES];
+                    int end = vol.index((int) ((long) vol.getDepth() * (chunk + 1) / chunks), 0, 0);
+                    for (int i = vol.index((int) ((long) vol.getDepth() * chunk / chunks), 0, 0); i < end; i++) {
+                        counts[data[i] - Short.MIN_VALUE]++;
+                    }
+                    return counts;
+                })
+                .reduce((counts, other) -> {
+                    for (int i = 0; i < NUM_OF_VALUES; i++) {
+                        counts[i] += other[i];
+                    }
+                    return counts;
+                })
+                .orElseGet(() -> new int[NUM_OF_VALUES]);
+
+        int first = 0;
+        while (first < NUM_OF_VALUES - 1 && all[first] == 0) {
+            first++;
+        }
+        int last = NUM_OF_VALUES - 1;
+        while (last > first && all[last] == 0) {
+            last--;
+        }
+        int[] counts = new int[last - first + 1];
+        System.arraycopy(all, first, counts, 0, counts.length);
+        return new Histogram(counts, (short) (first + Short.MIN_VALUE));
+    }
+
+    /**
+     * Returns the number of voxels holding the value, 0 outside the range of the volume
+     */
+    public int getCount(int value) {
+        int index = value - min;
+        return index >= 0 && index < counts.length ? counts[index] : 0;
+    }
+
+    int[] getCounts() {
+        return counts;
+    }
+
+    public short getMin() {
+        return min;
+    }
+
+    public short getMax() {
+        return (short) (min + counts.length - 1);
+    }
+}
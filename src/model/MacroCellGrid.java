@@ -0,0 +1,195 @@
+package model;
+
+import java.util.stream.IntStream;
+
+/**
+ * This class represents a coarse grid over a volume, keeping the smallest and the largest value
+ * of every cell of {@link #CELL_SIZE}<sup>3</sup> voxels.
+ * Each cell also covers the first voxels of its neighbours along every axis,
+ * so a tri-linear sample taken anywhere in the cell lies within the cell's range.
+ * Cells are addressed in the same [z][y][x] order as the volume
+ *
+ * @author Kasper Krawczyk
+ */
+public class MacroCellGrid {
+
+    public static final int CELL_SHIFT = 3;
+    public static final int CELL_SIZE = 1 << CELL_SHIFT;
+
+    private final short[] min;
+    private final short[] max;
+    private final int depth;
+    private final int height;
+    private final int width;
+    private final int cellsZ;
+    private final int cellsY;
+    private final int cellsX;
+
+    private MacroCellGrid(int depth, int height, int width) {
+        this.depth = depth;
+        this.height = height;
+        this.width = width;
+        this.cellsZ = (depth + CELL_SIZE - 1) >> CELL_SHIFT;
+        this.cellsY = (height + CELL_SIZE - 1) >> CELL_SHIFT;
+        this.cellsX = (width + CELL_SIZE - 1) >> CELL_SHIFT;
+        this.min = new short[cellsZ * cellsY * cellsX];
+        this.max = new short[cellsZ * cellsY * cellsX];
+    }
+
+    /**
+     * Computes the value range of every cell of the volume, one slab of cells per task
+     * @param vol the volume to build the grid over
+     * @return the grid
+     */
+    public static MacroCellGrid build(VolumeBuffer vol) {
+        MacroCellGrid grid = new MacroCellGrid(vol.getDepth(), vol.getHeight(), vol.getWidth());
+        IntStream.range(0, grid.cellsZ).parallel().forEach(cellZ -> {
+            for (int cellY = 0; cellY < grid.cellsY; cellY++) {
+                for (int cellX = 0; cellX < grid.cellsX; cellX++) {
+                    grid.setRange(vol, cellZ, cellY, cellX);
+                }
+            }
+        });
+        return grid;
+    }
+
+    /**
+     * Computes the value range of every cell of a bricked volume, streaming through its bricks once
+     * without going through its cache. The bricks are a whole number of cells wide,
+     * and the apron after a brick holds the first voxels of the cells after it
+     * @param vol the volume to build the grid over
+     * @return the grid
+     */
+    public static MacroCellGrid build(BrickedVolume vol) {
+        MacroCellGrid grid = new MacroCellGrid(vol.getDepth(), vol.getHeight(), vol.getWidth());
+        int cellsPerBrick = vol.getBrickSize() >> CELL_SHIFT;
+        IntStream.range(0, vol.getBricksZ()).parallel().forEach(brickZ -> {
+            for (int brickY = 0; brickY < vol.getBricksY(); brickY++) {
+                for (int brickX = 0; brickX < vol.getBricksX(); brickX++) {
+                    BrickedVolume.Brick brick = vol.loadBrick(brickZ, brickY, brickX);
+                    int endZ = Math.min((brickZ + 1) * cellsPerBrick, grid.cellsZ);
+                    int endY = Math.min((brickY + 1) * cellsPerBrick, grid.cellsY);
+                    int endX = Math.min((brickX + 1) * cellsPerBrick, grid.cellsX);
+                    for (int cellZ = brickZ * cellsPerBrick; cellZ < endZ; cellZ++) {
+                        for (int cellY = brickY * cellsPerBrick; cellY < endY; cellY++) {
+                            for (int cellX = brickX * cellsPerBrick; cellX < endX; cellX++) {
+                                grid.setRange(brick.getBuffer(),
+                                        brick.getOriginZ(), brick.getOriginY(), brick.getOriginX(),
+                                        cellZ, cellY, cellX);
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        return grid;
+    }
+
+    private void setRange(VolumeBuffer vol, int cellZ, int cellY, int cellX) {
+        setRange(vol, 0, 0, 0, cellZ, cellY, cellX);
+    }
+
+    /**
+     * Computes the value range of a cell from a part of the volume
+     * whose voxel [0][0][0] is the voxel at [originZ][originY][originX] of the whole one
+     */
+    private void setRange(VolumeBuffer vol, int originZ, int originY, int originX, int cellZ, int cellY, int cellX) {
+        int endZ = Math.min((cellZ + 1) << CELL_SHIFT, depth - 1);
+        int endY = Math.min((cellY + 1) << CELL_SHIFT, height - 1);
+        int endX = Math.min((cellX + 1) << CELL_SHIFT, width - 1);
+        short[] data = vol.getData();
+        short cellMin = Short.MAX_VALUE;
+        short cellMax = Short.MIN_VALUE;
+        for (int z = cellZ << CELL_SHIFT; z <= endZ; z++) {
+            for (int y = cellY << CELL_SHIFT; y <= endY; y++) {
+                int index = vol.index(z - originZ, y - originY, (cellX << CELL_SHIFT) - originX);
+                for (int x = cellX << CELL_SHIFT; x <= endX; x++, index++) {
+                    cellMin = (short) Math.min(cellMin, data[index]);
+                    cellMax = (short) Math.max(cellMax, data[index]);
+                }
+            }
+        }
+        int cell = (cellZ * cellsY + cellY) * cellsX + cellX;
+        min[cell] = cellMin;
+        max[cell] = cellMax;
+    }
+
+    /**
+     * Returns the index of the cell holding the voxel at [z][y][x]
+     */
+    public int cellIndex(int z, int y, int x) {
+        return ((z >> CELL_SHIFT) * cellsY + (y >> CELL_SHIFT)) * cellsX + (x >> CELL_SHIFT);
+    }
+
+    /**
+     * Checks the grid was built over a volume of the same dimensions
+     * @param vol the volume to check
+     * @return true if the cells line up with the volume
+     */
+    public boolean covers(Volume vol) {
+        return vol.getDepth() == depth && vol.getHeight() == height && vol.getWidth() == width;
+    }
+
+    /**
+     * Finds the smallest box of voxels that holds every cell which is not empty.
+     * A sample whose lower corner voxel lies outside the box falls into an empty cell
+     * @param emptyCells for every cell, whether the transfer function leaves it fully transparent
+     * @return the first voxel and the voxel past the last one along z, y and x,
+     * as {minZ, minY, minX, maxZ, maxY, maxX}, or null if every cell is empty
+     */
+    public int[] getOccupiedBounds(boolean[] emptyCells) {
+        int minZ = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int minX = Integer.MAX_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int cell = 0;
+        for (int cellZ = 0; cellZ < cellsZ; cellZ++) {
+            for (int cellY = 0; cellY < cellsY; cellY++) {
+                for (int cellX = 0; cellX < cellsX; cellX++, cell++) {
+                    if (emptyCells[cell]) {
+                        continue;
+                    }
+                    minZ = Math.min(minZ, cellZ);
+                    minY = Math.min(minY, cellY);
+                    minX = Math.min(minX, cellX);
+                    maxZ = Math.max(maxZ, cellZ);
+                    maxY = Math.max(maxY, cellY);
+                    maxX = Math.max(maxX, cellX);
+                }
+            }
+        }
+        if (maxZ < 0) {
+            return null;
+        }
+        return new int[]{
+                minZ << CELL_SHIFT, minY << CELL_SHIFT, minX << CELL_SHIFT,
+                (maxZ + 1) << CELL_SHIFT, (maxY + 1) << CELL_SHIFT, (maxX + 1) << CELL_SHIFT
+        };
+    }
+
+    public short getMin(int cell) {
+        return min[cell];
+    }
+
+    public short getMax(int cell) {
+        return max[cell];
+    }
+
+    public int getNumOfCells() {
+        return min.length;
+    }
+
+    public int getCellsZ() {
+        return cellsZ;
+    }
+
+    public int getCellsY() {
+        return cellsY;
+    }
+
+    public int getCellsX() {
+        return cellsX;
+    }
+}
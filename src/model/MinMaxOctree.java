@@ -0,0 +1,308 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class represents a min/max octree over the macro cells of a volume.
+ * Level 0 holds the cells of a {@link MacroCellGrid}; every level above merges 2 x 2 x 2 nodes
+ * of the one below, up to a single root covering the whole volume.
+ * Given which leaves are empty, a ray can be clipped to the ranges of samples that fall into occupied leaves,
+ * leaping over whole empty subtrees with a single test
+ *
+ * @author Kasper Krawczyk
+ */
+public class MinMaxOctree {
+
+    /**
+     * How far, in voxels, the node boxes are grown for the clipping,
+     * covering the samples the marcher clamps back into the volume and the rounding of the stepping
+     */
+    public static final double CLIP_PADDING = 2;
+
+    private final MacroCellGrid leaves;
+    private final short[][] min;
+    private final short[][] max;
+    /**
+     * The number of nodes at every level along z, y and x
+     */
+    private final int[][] nodes;
+
+    private MinMaxOctree(MacroCellGrid leaves, short[][] min, short[][] max, int[][] nodes) {
+        this.leaves = leaves;
+        this.min = min;
+        this.max = max;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Builds the levels above the macro cells, every node taking the range of its children
+     * @param grid the macro cells to use as the leaves
+     * @return the octree
+     */
+    public static MinMaxOctree build(MacroCellGrid grid) {
+        int numOfLevels = 1;
+        int largest = Math.max(grid.getCellsZ(), Math.max(grid.getCellsY(), grid.getCellsX()));
+        while ((1 << (numOfLevels - 1)) < largest) {
+            numOfLevels++;
+        }
+
+        short[][] min = new short[numOfLevels][];
+        short[][] max = new short[numOfLevels][];
+        int[][] nodes = new int[numOfLevels][];
+        nodes[0] = new int[]{grid.getCellsZ(), grid.getCellsY(), grid.getCellsX()};
+        min[0] = new short[grid.getNumOfCells()];
+        max[0] = new short[grid.getNumOfCells()];
+        for (int cell = 0; cell < grid.getNumOfCells(); cell++) {
+            min[0][cell] = grid.getMin(cell);
+            max[0][cell] = grid.getMax(cell);
+        }
+
+        for (int level = 1; level < numOfLevels; level++) {
+            int[] below = nodes[level - 1];
+            int[] dims = {(below[0] + 1) / 2, (below[1] + 1) / 2, (below[2] + 1) / 2};
+            nodes[level] = dims;
+            min[level] = new short[dims[0] * dims[1] * dims[2]];
+            max[level] = new short[dims[0] * dims[1] * dims[2]];
+            Arrays.fill(min[level], Short.MAX_VALUE);
+            Arrays.fill(max[level], Short.MIN_VALUE);
+            for (int z = 0; z < below[0]; z++) {
+                for (int y = 0; y < below[1]; y++) {
+                    for (int x = 0; x < below[2]; x++) {
+                        int child = (z * below[1] + y) * below[2] + x;
+                        int parent = ((z >> 1) * dims[1] + (y >> 1)) * dims[2] + (x >> 1);
+                        min[level][parent] = (short) Math.min(min[level][parent], min[level - 1][child]);
+                        max[level][parent] = (short) Math.max(max[level][parent], max[level - 1][child]);
+                    }
+                }
+            }
+        }
+        return new MinMaxOctree(grid, min, max, nodes);
+    }
+
+    /**
+     * Derives which nodes are empty from which leaves are: a node is empty when all its children are,
+     * which is tighter than testing its merged range, as the values between the children's ranges may be visible
+     * @param emptyLeaves for every leaf, whether the transfer function leaves it fully transparent
+     * @return for every level and node, whether the node is empty
+     */
+    public boolean[][] propagateEmpty(boolean[] emptyLeaves) {
+        boolean[][] empty = new boolean[nodes.length][];
+        empty[0] = emptyLeaves;
+        for (int level = 1; level < nodes.length; level++) {
+            int[] below = nodes[level - 1];
+            int[] dims = nodes[level];
+            empty[level] = new boolean[dims[0] * dims[1] * dims[2]];
+            Arrays.fill(empty[level], true);
+            for (int z = 0; z < below[0]; z++) {
+                for (int y = 0; y < below[1]; y++) {
+                    for (int x = 0; x < below[2]; x++) {
+                        if (!empty[level - 1][(z * below[1] + y) * below[2] + x]) {
+                            empty[level][((z >> 1) * dims[1] + (y >> 1)) * dims[2] + (x >> 1)] = false;
+                        }
+                    }
+                }
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Clips the ray set on <code>ranges</code> to the samples that fall into occupied nodes,
+     * descending from the root down to <code>leafLevel</code>
+     * @param emptyNodes the emptiness of every node, as derived by {@link #propagateEmpty(boolean[])}
+     * @param leafLevel  the level to stop descending at, 0 for the macro cells themselves
+     * @param ranges     the ray to clip, receiving the sorted, disjoint ranges of samples to take
+     */
+    public void clip(boolean[][] emptyNodes, int leafLevel, SampleRanges ranges) {
+        ranges.clear();
+        int root = nodes.length - 1;
+        visit(root, 0, 0, 0, Math.min(leafLevel, root), emptyNodes, ranges);
+        ranges.sortAndMerge();
+    }
+
+    private void visit(int level, int nodeZ, int nodeY, int nodeX, int leafLevel,
+                       boolean[][] emptyNodes, SampleRanges ranges) {
+        int[] dims = nodes[level];
+        if (emptyNodes[level][(nodeZ * dims[1] + nodeY) * dims[2] + nodeX]) {
+            return;
+        }
+        if (!ranges.clipToNode(level, nodeZ, nodeY, nodeX)) {
+            return;
+        }
+        if (level == leafLevel) {
+            ranges.add(ranges.nodeFirst, ranges.nodeLast);
+            return;
+        }
+
+        int[] below = nodes[level - 1];
+        for (int z = nodeZ * 2; z < Math.min(nodeZ * 2 + 2, below[0]); z++) {
+            for (int y = nodeY * 2; y < Math.min(nodeY * 2 + 2, below[1]); y++) {
+                for (int x = nodeX * 2; x < Math.min(nodeX * 2 + 2, below[2]); x++) {
+                    visit(level - 1, z, y, x, leafLevel, emptyNodes, ranges);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks the octree was built over a volume of the same dimensions
+     * @param vol the volume to check
+     * @return true if the leaves line up with the volume
+     */
+    public boolean covers(Volume vol) {
+        return leaves.covers(vol);
+    }
+
+    public MacroCellGrid getLeaves() {
+        return leaves;
+    }
+
+    public int getNumOfLevels() {
+        return nodes.length;
+    }
+
+    public short getMin(int level, int node) {
+        return min[level][node];
+    }
+
+    public short getMax(int level, int node) {
+        return max[level][node];
+    }
+
+    /**
+     * This class holds a ray in volume coordinates, parametrised by sample index,
+     * and the ranges of sample indices it is clipped to. It is reused from ray to ray
+     */
+    public static class SampleRanges {
+
+        private double z0;
+        private double y0;
+        private double x0;
+        private double stepZ;
+        private double stepY;
+        private double stepX;
+        private double inverseStepZ;
+        private double inverseStepY;
+        private double inverseStepX;
+        private int numOfSamples;
+        private int nodeFirst;
+        private int nodeLast;
+        private int[] bounds = new int[64];
+        private int count;
+
+        /**
+         * Sets the ray to clip: sample <code>i</code> lies at <code>origin + i * step</code>
+         */
+        public void setRay(double z0, double y0, double x0, double stepZ, double stepY, double stepX,
+                           int numOfSamples) {
+            this.z0 = z0;
+            this.y0 = y0;
+            this.x0 = x0;
+            this.stepZ = stepZ;
+            this.stepY = stepY;
+            this.stepX = stepX;
+            this.numOfSamples = numOfSamples;
+            this.inverseStepZ = 1 / stepZ;
+            this.inverseStepY = 1 / stepY;
+            this.inverseStepX = 1 / stepX;
+        }
+
+        /**
+         * Finds the samples of the ray whose coordinates fall in the padded box of the node
+         * @return false if there are none, otherwise they are left in <code>nodeFirst</code> to <code>nodeLast</code>
+         */
+        private boolean clipToNode(int level, int nodeZ, int nodeY, int nodeX) {
+            int shift = MacroCellGrid.CELL_SHIFT + level;
+            double tMin = 0;
+            double tMax = numOfSamples - 1;
+            if (stepZ == 0) {
+                if (z0 < (nodeZ << shift) - CLIP_PADDING || z0 > ((nodeZ + 1) << shift) + CLIP_PADDING) {
+                    return false;
+                }
+            } else {
+                double t0 = ((nodeZ << shift) - CLIP_PADDING - z0) * inverseStepZ;
+                double t1 = (((nodeZ + 1) << shift) + CLIP_PADDING - z0) * inverseStepZ;
+                tMin = Math.max(tMin, Math.min(t0, t1));
+                tMax = Math.min(tMax, Math.max(t0, t1));
+            }
+            if (stepY == 0) {
+                if (y0 < (nodeY << shift) - CLIP_PADDING || y0 > ((nodeY + 1) << shift) + CLIP_PADDING) {
+                    return false;
+                }
+            } else {
+                double t0 = ((nodeY << shift) - CLIP_PADDING - y0) * inverseStepY;
+                double t1 = (((nodeY + 1) << shift) + CLIP_PADDING - y0) * inverseStepY;
+                tMin = Math.max(tMin, Math.min(t0, t1));
+                tMax = Math.min(tMax, Math.max(t0, t1));
+            }
+            if (stepX == 0) {
+                if (x0 < (nodeX << shift) - CLIP_PADDING || x0 > ((nodeX + 1) << shift) + CLIP_PADDING) {
+                    return false;
+                }
+            } else {
+                double t0 = ((nodeX << shift) - CLIP_PADDING - x0) * inverseStepX;
+                double t1 = (((nodeX + 1) << shift) + CLIP_PADDING - x0) * inverseStepX;
+                tMin = Math.max(tMin, Math.min(t0, t1));
+                tMax = Math.min(tMax, Math.max(t0, t1));
+            }
+            nodeFirst = (int) Math.ceil(tMin);
+            nodeLast = (int) Math.floor(tMax);
+            return nodeFirst <= nodeLast;
+        }
+
+        private void clear() {
+            count = 0;
+        }
+
+        private void add(int first, int last) {
+            if (count * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[count * 2] = first;
+            bounds[count * 2 + 1] = last;
+            count++;
+        }
+
+        /**
+         * Sorts the ranges by their first sample and merges the ones that overlap or touch
+         */
+        private void sortAndMerge() {
+            //insertion sort, the children are mostly visited in order already
+            for (int i = 1; i < count; i++) {
+                int first = bounds[i * 2];
+                int last = bounds[i * 2 + 1];
+                int j = i - 1;
+                while (j >= 0 && bounds[j * 2] > first) {
+                    bounds[(j + 1) * 2] = bounds[j * 2];
+                    bounds[(j + 1) * 2 + 1] = bounds[j * 2 + 1];
+                    j--;
+                }
+                bounds[(j + 1) * 2] = first;
+                bounds[(j + 1) * 2 + 1] = last;
+            }
+            int merged = 0;
+            for (int i = 0; i < count; i++) {
+                if (merged > 0 && bounds[i * 2] <= bounds[(merged - 1) * 2 + 1] + 1) {
+                    bounds[(merged - 1) * 2 + 1] = Math.max(bounds[(merged - 1) * 2 + 1], bounds[i * 2 + 1]);
+                } else {
+                    bounds[merged * 2] = bounds[i * 2];
+                    bounds[merged * 2 + 1] = bounds[i * 2 + 1];
+                    merged++;
+                }
+            }
+            count = merged;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getFirst(int range) {
+            return bounds[range * 2];
+        }
+
+        public int getLast(int range) {
+            return bounds[range * 2 + 1];
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * This class generates a head-like phantom in place of a CT scan, so the renderer can be exercised
+ * without a dataset file: an ellipsoid of brain inside a shell of skull, wrapped in skin and surrounded by air.
+ * A little seeded noise keeps the gradients from being perfectly smooth, the same seed giving the same volume
+ *
+ * @author Kasper Krawczyk
+ */
+public class SyntheticVolume {
+
+    public static final short AIR = -1000;
+    public static final short SKIN = 200;
+    public static final short BONE = 1500;
+    public static final short BRAIN = 40;
+    public static final double SKULL_OUTER_RADIUS = 0.93;
+    public static final double SKULL_INNER_RADIUS = 0.85;
+    /**
+     * The fraction of every axis the head spans, the rest is air
+     */
+    public static final double HEAD_EXTENT = 0.9;
+    public static final int NOISE = 20;
+    public static final long DEFAULT_SEED = 42;
+
+    private SyntheticVolume() {
+    }
+
+    /**
+     * Generates the phantom laid out as a raw file would be read, see {@link DataSet#DataSet(String, short[][][])}
+     * @param size   the number of slices
+     * @param height the number of rows per slice
+     * @param width  the number of columns per slice
+     * @param seed   the seed of the noise
+     * @return the CT values as [height][size][width]
+     */
+    public static short[][][] createHead(int size, int height, int width, long seed) {
+        Random random = new Random(seed);
+        short[][][] slices = new short[height][size][width];
+        for (int j = 0; j < height; j++) {
+            double dy = normalise(j, height);
+            for (int k = 0; k < size; k++) {
+                double dz = normalise(k, size);
+                for (int i = 0; i < width; i++) {
+                    double dx = normalise(i, width);
+                    double radius = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                    short value;
+                    if (radius > 1) {
+                        value = AIR;
+                    } else if (radius > SKULL_OUTER_RADIUS) {
+                        value = SKIN;
+                    } else if (radius > SKULL_INNER_RADIUS) {
+                        value = BONE;
+                    } else {
+                        value = BRAIN;
+                    }
+                    slices[j][k][i] = (short) (value + random.nextInt(2 * NOISE + 1) - NOISE);
+                }
+            }
+        }
+        return slices;
+    }
+
+    public static short[][][] createHead(int size, int height, int width) {
+        return createHead(size, height, width, DEFAULT_SEED);
+    }
+
+    /**
+     * Maps an index onto [-1, 1] across the axis, leaving a margin of air at both ends
+     */
+    private static double normalise(int index, int length) {
+        return (2.0 * index / (length - 1) - 1) / HEAD_EXTENT;
+    }
+}
@@ -0,0 +1,21 @@
+package model;
+
+/**
+ * This interface represents a 3D volume of short samples addressed in [z][y][x] order,
+ * whether it is held in memory as a whole or paged in a brick at a time
+ *
+ * @author Kasper Krawczyk
+ */
+public interface Volume {
+
+    int getDepth();
+
+    int getHeight();
+
+    int getWidth();
+
+    /**
+     * Returns the number telling this volume apart from every other one created, e.g. in the keys of cached frames
+     */
+    long getId();
+}
@@ -0,0 +1,133 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a 3D volume of short samples stored in one contiguous
+ * <code>short[]</code> in z-major order, addressed by strides rather than
+ * through a jagged <code>short[][][]</code>.
+ * The sample at [z][y][x] lives at <code>z * strideZ + y * strideY + x</code>.
+ *
+ * @author Kasper Krawczyk
+ */
+public class VolumeBuffer implements Volume {
+
+    public static final String DIMENSIONS_ERR_MSG = "The data length does not match the volume dimensions";
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final short[] data;
+    private final int depth;
+    private final int height;
+    private final int width;
+    private final int strideZ;
+    private final int strideY;
+    /**
+     * Tells volumes apart without holding on to them, e.g. in the keys of cached frames
+     */
+    private final long id = nextId();
+
+    public VolumeBuffer(int depth, int height, int width) {
+        this(new short[depth * height * width], depth, height, width);
+    }
+
+    public VolumeBuffer(short[] data, int depth, int height, int width) {
+        if (data.length != depth * height * width) {
+            throw new IllegalArgumentException(DIMENSIONS_ERR_MSG);
+        }
+        this.data = data;
+        this.depth = depth;
+        this.height = height;
+        this.width = width;
+        this.strideY = width;
+        this.strideZ = height * width;
+    }
+
+    /**
+     * Hands out the ids of the volumes, shared by every kind of volume so no two of them get the same one
+     */
+    static long nextId() {
+        return NEXT_ID.getAndIncrement();
+    }
+
+    /**
+     * Copies a jagged [z][y][x] volume into a new contiguous buffer
+     * @param vol the jagged volume to copy
+     * @return a <code>VolumeBuffer</code> holding the same samples
+     */
+    public static VolumeBuffer fromArray(short[][][] vol) {
+        int depth = vol.length;
+        int height = vol[0].length;
+        int width = vol[0][0].length;
+        VolumeBuffer buffer = new VolumeBuffer(depth, height, width);
+        for (int z = 0; z < depth; z++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(vol[z][y], 0, buffer.data, buffer.index(z, y, 0), width);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Copies this buffer out to a jagged [z][y][x] volume,
+     * for the code paths that still expect <code>short[][][]</code>
+     * @return a new jagged copy of the samples
+     */
+    public short[][][] toArray() {
+        short[][][] vol = new short[depth][height][width];
+        for (int z = 0; z < depth; z++) {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(data, index(z, y, 0), vol[z][y], 0, width);
+            }
+        }
+        return vol;
+    }
+
+    public int index(int z, int y, int x) {
+        return z * strideZ + y * strideY + x;
+    }
+
+    public short get(int z, int y, int x) {
+        return data[z * strideZ + y * strideY + x];
+    }
+
+    public short get(int index) {
+        return data[index];
+    }
+
+    public void set(int z, int y, int x, short value) {
+        data[z * strideZ + y * strideY + x] = value;
+    }
+
+    public short[] getData() {
+        return data;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getStrideZ() {
+        return strideZ;
+    }
+
+    public int getStrideY() {
+        return strideY;
+    }
+
+    public int getLength() {
+        return data.length;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+}
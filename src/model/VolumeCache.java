@@ -0,0 +1,526 @@
+package model;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps the preprocessed form of a dataset on disk, so the next launch can skip
+ * the rescaling and the gradient work: the rescaled volume, the packed gradient field,
+ * the value and gradient ranges and the histogram.
+ * A cache file is named after the SHA-256 hash of the raw file and the source and rescaled dimensions,
+ * so a scan that changes gets a new cache instead of a stale one. The hash of a raw file is kept next to
+ * its size and modification time, so it is only computed again once either changes.
+ * A cache file is checked against its header and the checksums of its sections as they are read;
+ * one that does not match is reported and written again.
+ * The gradient field has its own section, read only once the renderer asks for it
+ *
+ * @author Kasper Krawczyk
+ */
+public final class VolumeCache {
+
+    /**
+     * "CTC1", the first int of every cache file
+     */
+    public static final int MAGIC = 0x43544331;
+    /**
+     * Bumped whenever the layout or the preprocessing changes, so older caches are rebuilt
+     */
+    public static final int VERSION = 2;
+    public static final int HEADER_BYTES = 128;
+    public static final String CACHE_DIR_PROPERTY = "ctviewer.cache.dir";
+    public static final String CACHE_DISABLED_PROPERTY = "ctviewer.cache.disabled";
+    public static final String DEFAULT_CACHE_DIR =
+            System.getProperty("user.home") + File.separator + ".ctviewer" + File.separator + "cache";
+    public static final String CACHE_FILE_NAME = "%s_%dx%dx%d_%dx%dx%d.ctcache";
+    public static final String STAMP_FILE_NAME = "%s.stamp";
+    public static final String LOADED_MSG = "Loaded %s from the cache %s in %.0f ms";
+    public static final String GRADIENT_FIELD_LOADED_MSG = "Loaded the gradient field from the cache %s in %.0f ms";
+    public static final String WRITTEN_MSG = "Cached %s in %s: %.1f MB in %.0f ms";
+    public static final String HASHED_MSG = "Hashed %s in %.0f ms";
+    public static final String STALE_MSG = "Rebuilding the cache %s: %s";
+    public static final String WRITE_ERR_MSG = "Error: The cache %s could not be written: %s";
+    public static final String INSTANTIATION_ERR_MSG = "Utility classes should not be instantiated";
+
+    private static final int HASH_CHUNK_BYTES = 1 << 30;
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final String SIZE_KEY = "size";
+    private static final String MODIFIED_KEY = "modified";
+    private static final String HASH_KEY = "sha256";
+
+    private VolumeCache() {
+        throw new UnsupportedOperationException(INSTANTIATION_ERR_MSG);
+    }
+
+    /**
+     * Returns whether datasets are cached, which the <code>ctviewer.cache.disabled</code> property turns off
+     */
+    public static boolean isEnabled() {
+        return !Boolean.getBoolean(CACHE_DISABLED_PROPERTY);
+    }
+
+    /**
+     * Returns the hash of a raw file, kept in a stamp file next to the size and modification time it was computed at,
+     * so only a raw file that has changed since is read and hashed again
+     * @param source the raw file
+     * @return the SHA-256 hash
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] getSourceHash(File source) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source.toPath(), BasicFileAttributes.class);
+        String size = String.valueOf(attributes.size());
+        String modified = String.valueOf(attributes.lastModifiedTime().toMillis());
+        File stampFile = new File(getCacheDir(), String.format(STAMP_FILE_NAME,
+                toHex(digest(source.getCanonicalPath().getBytes(StandardCharsets.UTF_8)))));
+
+        Properties stamp = new Properties();
+        if (stampFile.isFile()) {
+            try (InputStream in = Files.newInputStream(stampFile.toPath())) {
+                stamp.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                stamp.clear();
+            }
+        }
+        String hex = stamp.getProperty(HASH_KEY);
+        if (hex != null && hex.length() == 64 && size.equals(stamp.getProperty(SIZE_KEY))
+                && modified.equals(stamp.getProperty(MODIFIED_KEY))) {
+            return fromHex(hex);
+        }
+
+        long start = System.nanoTime();
+        byte[] hash = hash(source);
+        System.out.println(String.format(HASHED_MSG, source, (System.nanoTime() - start) / 1e6));
+        stamp.setProperty(SIZE_KEY, size);
+        stamp.setProperty(MODIFIED_KEY, modified);
+        stamp.setProperty(HASH_KEY, toHex(hash));
+        try {
+            Files.createDirectories(stampFile.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(stampFile.toPath())) {
+                stamp.store(out, source.getPath());
+            }
+        } catch (IOException e) {
+            System.out.println(String.format(WRITE_ERR_MSG, stampFile, e.getMessage()));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes the contents of a raw file, a memory-mapped chunk at a time
+     * @param source the raw file
+     * @return the SHA-256 hash
+     * @throws IOException if the file cannot be read
+     */
+    public static byte[] hash(File source) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += HASH_CHUNK_BYTES) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(HASH_CHUNK_BYTES, size - position)));
+            }
+        }
+        return digest.digest();
+    }
+
+    private static byte[] digest(byte[] bytes) {
+        return newDigest().digest(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static File getCacheDir() {
+        return new File(System.getProperty(CACHE_DIR_PROPERTY, DEFAULT_CACHE_DIR));
+    }
+
+    /**
+     * Returns the cache file of a raw file with the given hash, whether it exists or not
+     * @param hash       the hash of the raw file
+     * @param source     the size, height and width of the raw file
+     * @param dimensions the depth, height and width of the rescaled volume
+     * @return the cache file, in the directory set by the <code>ctviewer.cache.dir</code> property
+     */
+    public static File getCacheFile(byte[] hash, int[] source, int[] dimensions) {
+        return new File(getCacheDir(), String.format(CACHE_FILE_NAME,
+                toHex(hash), source[0], source[1], source[2], dimensions[0], dimensions[1], dimensions[2]));
+    }
+
+    /**
+     * Reads a cache file back, checking it was written by this version for the same raw file and dimensions,
+     * and that the volume and the histogram match their checksums. The gradient field is left on disk,
+     * see {@link #readGradientField(File, byte[], int[], int[])}
+     * @param file       the cache file
+     * @param hash       the hash of the raw file
+     * @param source     the size, height and width of the raw file
+     * @param dimensions the depth, height and width of the rescaled volume
+     * @return the cached dataset without its gradient field, or null if there is no cache or it is stale or corrupt
+     */
+    public static Entry read(File file, byte[] hash, int[] source, int[] dimensions) {
+        if (!file.isFile()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file, hash, source, dimensions);
+            if (header == null) {
+                return null;
+            }
+
+            int voxels = dimensions[0] * dimensions[1] * dimensions[2];
+            short[] volume = new short[voxels];
+            int[] counts = new int[header.getInt(96)];
+            if (readShorts(channel, HEADER_BYTES, volume) != header.getInt(100)
+                    || readInts(channel, getHistogramPosition(voxels), counts) != header.getInt(108)) {
+                System.out.println(String.format(STALE_MSG, file, "its contents do not match their checksum"));
+                return null;
+            }
+
+            Entry entry = new Entry(
+                    new VolumeBuffer(volume, dimensions[0], dimensions[1], dimensions[2]),
+                    null,
+                    new Histogram(counts, header.getShort(92)),
+                    header.getShort(72), header.getShort(74), header.getFloat(76), header.getFloat(80));
+            System.out.println(String.format(LOADED_MSG, file.getName(), file.getParent(),
+                    (System.nanoTime() - start) / 1e6));
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            System.out.println(String.format(STALE_MSG, file, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Reads the gradient field section of a cache file read before with {@link #read(File, byte[], int[], int[])}
+     * @param file       the cache file
+     * @param hash       the hash of the raw file
+     * @param source     the size, height and width of the raw file
+     * @param dimensions the depth, height and width of the rescaled volume
+     * @return the gradient field, or null if the cache has changed since or its gradients do not match their checksum
+     */
+    public static GradientField readGradientField(File file, byte[] hash, int[] source, int[] dimensions) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel, file, hash, source, dimensions);
+            if (header == null) {
+                return null;
+            }
+            int voxels = dimensions[0] * dimensions[1] * dimensions[2];
+            int[] packed = new int[voxels];
+            if (readInts(channel, HEADER_BYTES + (long) voxels * Short.BYTES, packed) != header.getInt(104)) {
+                System.out.println(String.format(STALE_MSG, file, "its gradients do not match their checksum"));
+                return null;
+            }
+            System.out.println(String.format(GRADIENT_FIELD_LOADED_MSG, file.getName(),
+                    (System.nanoTime() - start) / 1e6));
+            return GradientField.fromPacked(packed, dimensions[0], dimensions[1], dimensions[2], header.getFloat(84));
+        } catch (IOException | RuntimeException e) {
+            System.out.println(String.format(STALE_MSG, file, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Reads the header of a cache file and checks it belongs to the expected cache, reporting why not
+     * @return the header, or null if it does not match
+     */
+    private static ByteBuffer readHeader(FileChannel channel, File file, byte[] hash, int[] source, int[] dimensions)
+            throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            System.out.println(String.format(STALE_MSG, file, "it is truncated"));
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        String mismatch = checkHeader(header, hash, source, dimensions, channel.size());
+        if (mismatch != null) {
+            System.out.println(String.format(STALE_MSG, file, mismatch));
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Describes why the header does not belong to the expected cache
+     * @return the reason, or null if it matches
+     */
+    private static String checkHeader(ByteBuffer in, byte[] hash, int[] source, int[] dimensions, long fileBytes) {
+        if (in.getInt(0) != MAGIC) {
+            return "it is not a cache file";
+        }
+        if (in.getInt(4) != VERSION) {
+            return "it was written by version " + in.getInt(4) + ", not " + VERSION;
+        }
+        byte[] cachedHash = new byte[hash.length];
+        in.get(8, cachedHash);
+        if (!MessageDigest.isEqual(cachedHash, hash)) {
+            return "it was written for another raw file";
+        }
+        for (int i = 0; i < 3; i++) {
+            if (in.getInt(48 + i * Integer.BYTES) != source[i] || in.getInt(60 + i * Integer.BYTES) != dimensions[i]) {
+                return "it was written for other dimensions";
+            }
+        }
+        long voxels = (long) dimensions[0] * dimensions[1] * dimensions[2];
+        long expectedBytes = getHistogramPosition(voxels) + (long) in.getInt(96) * Integer.BYTES;
+        if (in.getInt(96) < 0 || fileBytes != expectedBytes) {
+            return "it is " + fileBytes + " bytes long, expected " + expectedBytes;
+        }
+        return null;
+    }
+
+    /**
+     * Returns where the histogram section starts, after the volume and the gradient field
+     */
+    private static long getHistogramPosition(long voxels) {
+        return HEADER_BYTES + voxels * (Short.BYTES + Integer.BYTES);
+    }
+
+    /**
+     * Writes a cache file, first to a temporary file next to it that is then moved in place,
+     * so a cache is never seen half-written. The file is written through plain channel writes and never mapped,
+     * so it can replace a stale cache on every platform. A failure is reported and otherwise ignored
+     * @param file   the cache file
+     * @param hash   the hash of the raw file
+     * @param source the size, height and width of the raw file
+     * @param entry  the preprocessed dataset, its gradient field included
+     * @return true if the cache was written
+     */
+    public static boolean write(File file, byte[] hash, int[] source, Entry entry) {
+        long start = System.nanoTime();
+        VolumeBuffer volume = entry.getVolume();
+        int[] counts = entry.getHistogram().getCounts();
+        long fileBytes = getHistogramPosition(volume.getLength()) + (long) counts.length * Integer.BYTES;
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                int volumeCrc = writeShorts(channel, HEADER_BYTES, volume.getData());
+                int gradientCrc = writeInts(channel, HEADER_BYTES + (long) volume.getLength() * Short.BYTES,
+                        entry.getGradientField().getPacked());
+                int histogramCrc = writeInts(channel, getHistogramPosition(volume.getLength()), counts);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(0, MAGIC)
+                        .putInt(4, VERSION)
+                        .put(8, hash)
+                        .putInt(48, source[0])
+                        .putInt(52, source[1])
+                        .putInt(56, source[2])
+                        .putInt(60, volume.getDepth())
+                        .putInt(64, volume.getHeight())
+                        .putInt(68, volume.getWidth())
+                        .putShort(72, entry.getMinValue())
+                        .putShort(74, entry.getMaxValue())
+                        .putFloat(76, entry.getMinGradientMagnitude())
+                        .putFloat(80, entry.getMaxGradientMagnitude())
+                        .putFloat(84, entry.getGradientField().getMagnitudeScale())
+                        .putShort(92, entry.getHistogram().getMin())
+                        .putInt(96, counts.length)
+                        .putInt(100, volumeCrc)
+                        .putInt(104, gradientCrc)
+                        .putInt(108, histogramCrc);
+                writeFully(channel, header, 0);
+                channel.force(true);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println(String.format(WRITTEN_MSG, file.getName(), file.getParent(),
+                    fileBytes / (1024.0 * 1024.0), (System.nanoTime() - start) / 1e6));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println(String.format(WRITE_ERR_MSG, file, e.getMessage()));
+            temp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Reads a section of shorts a chunk at a time
+     * @return the checksum of the bytes of the section
+     */
+    private static int readShorts(FileChannel channel, long position, short[] values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        for (int done = 0; done < values.length; ) {
+            int count = Math.min(values.length - done, CHUNK_BYTES / Short.BYTES);
+            chunk.clear().limit(count * Short.BYTES);
+            readFully(channel, chunk, position + (long) done * Short.BYTES);
+            chunk.flip();
+            crc.update(chunk.duplicate());
+            chunk.asShortBuffer().get(values, done, count);
+            done += count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reads a section of ints a chunk at a time
+     * @return the checksum of the bytes of the section
+     */
+    private static int readInts(FileChannel channel, long position, int[] values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        for (int done = 0; done < values.length; ) {
+            int count = Math.min(values.length - done, CHUNK_BYTES / Integer.BYTES);
+            chunk.clear().limit(count * Integer.BYTES);
+            readFully(channel, chunk, position + (long) done * Integer.BYTES);
+            chunk.flip();
+            crc.update(chunk.duplicate());
+            chunk.asIntBuffer().get(values, done, count);
+            done += count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes a section of shorts a chunk at a time
+     * @return the checksum of the bytes of the section
+     */
+    private static int writeShorts(FileChannel channel, long position, short[] values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        for (int done = 0; done < values.length; ) {
+            int count = Math.min(values.length - done, CHUNK_BYTES / Short.BYTES);
+            chunk.clear();
+            chunk.asShortBuffer().put(values, done, count);
+            chunk.limit(count * Short.BYTES);
+            crc.update(chunk.duplicate());
+            writeFully(channel, chunk, position + (long) done * Short.BYTES);
+            done += count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes a section of ints a chunk at a time
+     * @return the checksum of the bytes of the section
+     */
+    private static int writeInts(FileChannel channel, long position, int[] values) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        CRC32 crc = new CRC32();
+        for (int done = 0; done < values.length; ) {
+            int count = Math.min(values.length - done, CHUNK_BYTES / Integer.BYTES);
+            chunk.clear();
+            chunk.asIntBuffer().put(values, done, count);
+            chunk.limit(count * Integer.BYTES);
+            crc.update(chunk.duplicate());
+            writeFully(channel, chunk, position + (long) done * Integer.BYTES);
+            done += count;
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Fills the buffer from the given position of the file
+     * @throws EOFException if the file ends first
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * What a dataset keeps from its preprocessing
+     */
+    public static final class Entry {
+        private final VolumeBuffer volume;
+        private final GradientField gradientField;
+        private final Histogram histogram;
+        private final short minValue;
+        private final short maxValue;
+        private final float minGradientMagnitude;
+        private final float maxGradientMagnitude;
+
+        /**
+         * @param volume               the rescaled volume
+         * @param gradientField        the gradient field of the rescaled volume, null if it is left on disk
+         * @param histogram            the histogram of the rescaled volume
+         * @param minValue             the smallest value of the raw and the rescaled volume
+         * @param maxValue             the largest value of the raw and the rescaled volume
+         * @param minGradientMagnitude the smallest finite-difference gradient magnitude
+         * @param maxGradientMagnitude the largest one, which the opacities are scaled by
+         */
+        public Entry(VolumeBuffer volume, GradientField gradientField, Histogram histogram,
+                     short minValue, short maxValue, float minGradientMagnitude, float maxGradientMagnitude) {
+            this.volume = volume;
+            this.gradientField = gradientField;
+            this.histogram = histogram;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
+            this.minGradientMagnitude = minGradientMagnitude;
+            this.maxGradientMagnitude = maxGradientMagnitude;
+        }
+
+        public VolumeBuffer getVolume() {
+            return volume;
+        }
+
+        public GradientField getGradientField() {
+            return gradientField;
+        }
+
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        public short getMinValue() {
+            return minValue;
+        }
+
+        public short getMaxValue() {
+            return maxValue;
+        }
+
+        public float getMinGradientMagnitude() {
+            return minGradientMagnitude;
+        }
+
+        public float getMaxGradientMagnitude() {
+            return maxGradientMagnitude;
+        }
+    }
+}